@@ -0,0 +1,71 @@
+package pdc;
+
+import java.util.Locale;
+
+// wall-clock comparison of the multiply strategies at several sizes. Run with ./gradlew benchmark
+// or ./gradlew benchmark --args="256 512 1024"
+public final class MultiplyBenchmark {
+
+    private static final int WARMUP = 2;
+    private static final int RUNS = 3;
+
+    private MultiplyBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = (args.length == 0) ? new int[] { 256, 512, 1024, 2048 } : parse(args);
+
+        System.out.printf(Locale.ROOT, "%6s %10s %12s %10s%n", "n", "strategy", "best ms", "speedup");
+        for (int n : sizes) {
+            int[][] a = MatrixGenerator.generateRandomMatrix(n, n, 100);
+            int[][] b = MatrixGenerator.generateRandomMatrix(n, n, 100);
+            int[][] expected = null;
+            double baseline = 0;
+
+            for (MultiplyStrategy strategy : MultiplyStrategy.values()) {
+                int[][] c = null;
+                long best = Long.MAX_VALUE;
+                for (int r = 0; r < WARMUP + RUNS; r++) {
+                    long t0 = System.nanoTime();
+                    c = MatrixGenerator.multiply(a, b, strategy);
+                    long t = System.nanoTime() - t0;
+                    if (r >= WARMUP)
+                        best = Math.min(best, t);
+                }
+
+                if (expected == null)
+                    expected = c;
+                else if (!java.util.Arrays.deepEquals(expected, c))
+                    throw new IllegalStateException(strategy + " disagrees with " + MultiplyStrategy.IKJ);
+
+                double ms = best / 1e6;
+                if (strategy == MultiplyStrategy.IKJ)
+                    baseline = ms;
+                System.out.printf(Locale.ROOT, "%6d %10s %12.1f %9.2fx%n", n, strategy, ms, baseline / ms);
+            }
+
+            // same product over the flat row-major type
+            Matrix fa = Matrix.of(a);
+            Matrix fb = Matrix.of(b);
+            Matrix fc = null;
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < WARMUP + RUNS; r++) {
+                long t0 = System.nanoTime();
+                fc = MatrixGenerator.multiply(fa, fb);
+                long t = System.nanoTime() - t0;
+                if (r >= WARMUP)
+                    best = Math.min(best, t);
+            }
+            if (!java.util.Arrays.deepEquals(expected, fc.toArray()))
+                throw new IllegalStateException("Matrix multiply disagrees with " + MultiplyStrategy.IKJ);
+            System.out.printf(Locale.ROOT, "%6d %10s %12.1f %9.2fx%n", n, "Matrix", best / 1e6, baseline / (best / 1e6));
+        }
+    }
+
+    private static int[] parse(String[] args) {
+        int[] sizes = new int[args.length];
+        for (int i = 0; i < args.length; i++)
+            sizes[i] = Integer.parseInt(args[i]);
+        return sizes;
+    }
+}
@@ -0,0 +1,76 @@
+package pdc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one request on each of many open connections to Master.listen, then every reply. Compares a
+// thread per connection from the platform pool with a virtual thread per connection; virtual=true
+// needs a Java 21 runtime, so pass -p virtual=false on older ones
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xss256k" })
+public class ConnectionFanInBench {
+
+    @Param({ "false", "true" })
+    boolean virtual;
+
+    @Param({ "100", "2000" })
+    int connections;
+
+    private Master master;
+    private Socket[] sockets;
+    private Message request;
+
+    @Setup
+    public void setup() throws IOException {
+        master = new Master(virtual);
+        master.listen(0);
+        sockets = new Socket[connections];
+        for (int i = 0; i < connections; i++) {
+            sockets[i] = new Socket(InetAddress.getLoopbackAddress(), master.getPort());
+            sockets[i].setTcpNoDelay(true);
+        }
+        request = new Message();
+        request.messageType = Message.TYPE_HEARTBEAT;
+        request.setPayload(new byte[64]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Socket s : sockets) {
+            s.close();
+        }
+        master.shutdown();
+    }
+
+    // every connection's handler is parked in a read when the requests go out
+    @Benchmark
+    public int fanIn() throws IOException {
+        for (Socket s : sockets) {
+            RPC.send(s, request);
+        }
+        int bytes = 0;
+        for (Socket s : sockets) {
+            bytes += RPC.receive(s).payloadLength();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,77 @@
+package pdc;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// frame encode and decode throughput by payload size. Run under -prof gc (the gradle task's
+// default) for bytes allocated per operation
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MessageCodecBench {
+
+    @Param({ "0", "64", "4096", "262144" })
+    int payloadBytes;
+
+    private Message msg;
+    private byte[] packed;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setup() {
+        byte[] payload = new byte[payloadBytes];
+        new Random(42).nextBytes(payload);
+
+        msg = new Message();
+        msg.messageType = Message.TYPE_TASK;
+        msg.studentId = "bench";
+        msg.sender = "master";
+        msg.requestId = 7;
+        msg.setPayload(payload);
+        packed = msg.pack();
+        frame = ByteBuffer.allocateDirect(packed.length);
+    }
+
+    @Benchmark
+    public byte[] pack() {
+        return msg.pack();
+    }
+
+    @Benchmark
+    public Message unpack() {
+        return Message.unpack(packed);
+    }
+
+    // the receive path: the payload stays a slice of the frame buffer
+    @Benchmark
+    public Message decode() throws Exception {
+        frame.clear();
+        frame.put(packed).flip();
+        return Message.decode(frame);
+    }
+
+    // the pooled send path
+    @Benchmark
+    public int encodePooled() {
+        PooledBuffer out = msg.encodePooled(RPC.pool());
+        int n = out.buffer().remaining();
+        out.release();
+        return n;
+    }
+}
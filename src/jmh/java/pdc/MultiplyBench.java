@@ -0,0 +1,67 @@
+package pdc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// sequential against parallel multiply over the flat matrix type, and the long and modular sums.
+// Only the parallel kernel's state carries the threads parameter, so the others run once per n
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgs = { "-Xmx2g" })
+public class MultiplyBench {
+
+    @State(Scope.Benchmark)
+    public static class Operands {
+        @Param({ "128", "256", "512", "1024" })
+        int n;
+
+        Matrix a;
+        Matrix b;
+
+        @Setup
+        public void setup() {
+            a = MatrixGenerator.randomMatrix(n, n, 100);
+            b = MatrixGenerator.randomMatrix(n, n, 100);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Threaded extends Operands {
+        @Param({ "1", "2", "4", "8" })
+        int threads;
+    }
+
+    @Benchmark
+    public Matrix multiply(Operands s) {
+        return MatrixGenerator.multiply(s.a, s.b);
+    }
+
+    @Benchmark
+    public Matrix parallelMultiply(Threaded s) {
+        return MatrixGenerator.parallelMultiply(s.a, s.b, s.threads);
+    }
+
+    // what exact and modular sums cost over the wrapping int kernel
+    @Benchmark
+    public LongMatrix multiplyLong(Operands s) {
+        return MatrixGenerator.multiplyLong(s.a, s.b);
+    }
+
+    @Benchmark
+    public Matrix multiplyMod(Operands s) {
+        return MatrixGenerator.multiplyMod(s.a, s.b, 1_000_000_007);
+    }
+}
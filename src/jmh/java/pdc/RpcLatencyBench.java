@@ -0,0 +1,112 @@
+package pdc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// loopback round trips against an echo server on its own thread. Sampled, so the JSON carries
+// latency percentiles as well as the mean
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class RpcLatencyBench {
+
+    @Param({ "64", "65536" })
+    int payloadBytes;
+
+    private ServerSocket server;
+    private Thread echo;
+    private Socket socket;
+    private Socket multiplexed;
+    private RpcClient client;
+    private Message request;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        echo = new Thread(this::echoAll, "bench-echo");
+        echo.setDaemon(true);
+        echo.start();
+
+        socket = connect();
+        multiplexed = connect();
+        client = new RpcClient(multiplexed, (c, m) -> { });
+        Thread reader = new Thread(client, "bench-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        request = new Message();
+        request.messageType = Message.TYPE_TASK;
+        request.setPayload(new byte[payloadBytes]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        socket.close();
+        server.close();
+    }
+
+    // one blocking request and reply on a dedicated socket
+    @Benchmark
+    public Message call() throws IOException {
+        return RPC.call(socket, request);
+    }
+
+    // the same round trip through the multiplexed client the master uses
+    @Benchmark
+    public Message clientCall() throws Exception {
+        return client.call(request).get();
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket(server.getInetAddress(), server.getLocalPort());
+        s.setTcpNoDelay(true);
+        return s;
+    }
+
+    private void echoAll() {
+        while (!server.isClosed()) {
+            try {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                Thread t = new Thread(() -> echoOne(s), "bench-echo-conn");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // requestId survives the round trip, so the multiplexed client can match replies
+    private static void echoOne(Socket s) {
+        try (Socket conn = s) {
+            while (true) {
+                Message m = RPC.receive(conn);
+                m.messageType = Message.TYPE_RESULT;
+                RPC.send(conn, m);
+            }
+        } catch (IOException e) {
+            // closed by tearDown
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package pdc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the scalar tile loop against the Vector API one, alone and inside the packed multiply. Forks add
+// jdk.incubator.vector; the vector runs fail on a runtime without it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xmx2g", "--add-modules", "jdk.incubator.vector" })
+public class SimdBench {
+
+    @Param({ "scalar", "vector" })
+    String kernel;
+
+    @Param({ "256", "1024" })
+    int n;
+
+    private TileKernel tileKernel;
+    private Matrix a;
+    private Matrix b;
+    private Matrix c;
+    private int[][] arows;
+    private int[][] tile;
+    private int[][] accs;
+
+    @Setup
+    public void setup() {
+        tileKernel = "vector".equals(kernel) ? TileKernels.vector() : TileKernels.scalar();
+        if (tileKernel == null)
+            throw new IllegalStateException("Vector API kernel not available");
+        a = MatrixGenerator.randomMatrix(n, n, 100);
+        b = MatrixGenerator.randomMatrix(n, n, 100);
+        c = Matrix.heap(n, n);
+
+        int width = Math.min(n, MatrixKernels.TILE_J);
+        arows = MatrixGenerator.randomMatrix(TileKernel.ROWS, MatrixKernels.TILE_K, 100).toArray();
+        tile = MatrixGenerator.randomMatrix(MatrixKernels.TILE_K, width, 100).toArray();
+        accs = new int[TileKernel.ROWS][width];
+    }
+
+    // a group of A rows against one packed B tile: the loop the kernels differ in
+    @Benchmark
+    public int[][] tile() {
+        tileKernel.accumulate(arows, TileKernel.ROWS, tile, MatrixKernels.TILE_K, accs, accs[0].length);
+        return accs;
+    }
+
+    @Benchmark
+    public Matrix multiply() {
+        MatrixKernels.multiplyRows(a, b, c, 0, n, tileKernel);
+        return c;
+    }
+}
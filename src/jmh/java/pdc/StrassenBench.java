@@ -0,0 +1,54 @@
+package pdc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Strassen-Winograd against the blocked kernel, for picking the crossover. Compare with
+// MultiplyBench at the same n
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class StrassenBench {
+
+    @Param({ "512", "1024", "2048" })
+    int n;
+
+    @Param({ "64", "128", "256", "512" })
+    int crossover;
+
+    @Param({ "4" })
+    int threads;
+
+    private Matrix a;
+    private Matrix b;
+
+    @Setup
+    public void setup() {
+        a = MatrixGenerator.randomMatrix(n, n, 100);
+        b = MatrixGenerator.randomMatrix(n, n, 100);
+    }
+
+    @Benchmark
+    public Matrix strassen() {
+        return MatrixGenerator.strassenMultiply(a, b, crossover);
+    }
+
+    @Benchmark
+    public Matrix parallelStrassen() {
+        return MatrixGenerator.parallelStrassenMultiply(a, b, threads, crossover);
+    }
+}
@@ -0,0 +1,81 @@
+package pdc;
+
+import java.nio.ByteBuffer;
+
+// how the products of a multiply are summed. INT wraps at 32 bits, which is what the kernels have
+// always done; LONG sums in 64 bits and is exact while every entry of the product fits in a long;
+// MOD reduces every entry into [0, modulus), for any inputs and any inner dimension
+public final class Accumulation {
+
+    public enum Mode {
+        INT, LONG, MOD
+    }
+
+    public static final Accumulation INT = new Accumulation(Mode.INT, 0);
+    public static final Accumulation LONG = new Accumulation(Mode.LONG, 0);
+
+    private final Mode mode;
+    private final int modulus;
+
+    private Accumulation(Mode mode, int modulus) {
+        this.mode = mode;
+        this.modulus = modulus;
+    }
+
+    public static Accumulation mod(int modulus) {
+        if (modulus < 2)
+            throw new IllegalArgumentException("modulus must be at least 2");
+        return new Accumulation(Mode.MOD, modulus);
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    // 0 unless MOD
+    public int modulus() {
+        return modulus;
+    }
+
+    // how many reduced products the MOD kernel can add to a reduced sum before the long could
+    // overflow, at least 1: (q - 1) + n (q - 1)^2 <= Long.MAX_VALUE
+    static long reduceEvery(int modulus) {
+        long r = modulus - 1L;
+        return Math.max(1, (Long.MAX_VALUE - r) / (r * r));
+    }
+
+    // the wire form in a task: mode(1) modulus(4)
+    void writeTo(ByteBuffer buf) {
+        buf.put((byte) mode.ordinal()).putInt(modulus);
+    }
+
+    static Accumulation readFrom(ByteBuffer buf) {
+        int m = buf.get();
+        int modulus = buf.getInt();
+        if (m == Mode.LONG.ordinal())
+            return LONG;
+        if (m == Mode.MOD.ordinal() && modulus >= 2)
+            return mod(modulus);
+        if (m == Mode.INT.ordinal())
+            return INT;
+        throw new IllegalArgumentException("Unknown accumulation: " + m + " mod " + modulus);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Accumulation))
+            return false;
+        Accumulation other = (Accumulation) o;
+        return mode == other.mode && modulus == other.modulus;
+    }
+
+    @Override
+    public int hashCode() {
+        return mode.hashCode() * 31 + modulus;
+    }
+
+    @Override
+    public String toString() {
+        return (mode == Mode.MOD) ? "MOD " + modulus : mode.name();
+    }
+}
@@ -0,0 +1,32 @@
+package pdc;
+
+// a rectangular tile of the output matrix: rows [rowStart, rowEnd) x cols [colStart, colEnd)
+public final class Block {
+
+    public final int rowStart;
+    public final int rowEnd;
+    public final int colStart;
+    public final int colEnd;
+
+    public Block(int rowStart, int rowEnd, int colStart, int colEnd) {
+        if (rowStart < 0 || colStart < 0 || rowEnd < rowStart || colEnd < colStart)
+            throw new IllegalArgumentException("Invalid block bounds");
+        this.rowStart = rowStart;
+        this.rowEnd = rowEnd;
+        this.colStart = colStart;
+        this.colEnd = colEnd;
+    }
+
+    public int rows() {
+        return rowEnd - rowStart;
+    }
+
+    public int cols() {
+        return colEnd - colStart;
+    }
+
+    @Override
+    public String toString() {
+        return "Block[" + rowStart + ".." + rowEnd + ", " + colStart + ".." + colEnd + "]";
+    }
+}
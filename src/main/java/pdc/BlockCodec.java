@@ -0,0 +1,665 @@
+package pdc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// payload layout for TYPE_TASK / TYPE_RESULT block messages
+//
+// task:   taskId(8) rowStart(4) rowEnd(4) colStart(4) colEnd(4) inner(4) format(1) body
+//         body = A strip (rows x inner) then B panel (inner x cols); with the OPERAND_REF format
+//         bit, operandId(8) follows the format byte and the body is the A strip alone, the panel
+//         having been sent earlier as an operand. With the ACCUMULATE bit, mode(1) modulus(4)
+//         come first after the format byte: the Accumulation to multiply with, INT when absent
+//         With the FILE_REF bit instead there is no body: three length-prefixed utf-8 paths follow
+//         the format byte, the MappedMatrix files of A, B and C on the worker's own host
+// operand: operandId(8) rows(4) cols(4) format(1) body, for TYPE_OPERAND
+// result: taskId(8) rowStart(4) rowEnd(4) colStart(4) colEnd(4) computeNanos(8) format(1) body
+//         body = C block (rows x cols); computeNanos is the worker's time on the multiply. A
+//         FILE_REF result has no body: the block was written into the C file. An
+//         Accumulation.LONG result packs its body as longs, PACK_INT64 or PACK_VARINT64
+//
+// the header is big-endian like the rest of the wire format; the body is row-major ints, either
+// little-endian 4-byte ints (bulk copies on every platform we run on) or zigzag varints, and the
+// same for longs with 8-byte little-endian values and 64-bit varints. When the
+// format's COMPRESSED bit is set the body is rawLength(4) followed by an LZ4 block of it
+public final class BlockCodec {
+
+    // codec features a peer may advertise in its HELLO; the master answers with the intersection
+    public static final int FEATURE_VARINT = 1;
+    public static final int FEATURE_LZ4 = 2;
+    // the peer keeps operands it is sent and accepts tasks that refer to them
+    public static final int FEATURE_OPERAND_CACHE = 4;
+    // the peer maps matrix files named in FILE_REF tasks; only used when it shares the master's host
+    public static final int FEATURE_SHARED_FILES = 8;
+    // the peer takes ACCUMULATE tasks and sends long results for Accumulation.LONG
+    public static final int FEATURE_ACCUMULATION = 16;
+    public static final int SUPPORTED_FEATURES = FEATURE_VARINT | FEATURE_LZ4 | FEATURE_OPERAND_CACHE
+            | FEATURE_SHARED_FILES | FEATURE_ACCUMULATION;
+
+    static final int PACK_INT32 = 0;
+    static final int PACK_VARINT = 1;
+    static final int PACK_INT64 = 2;
+    static final int PACK_VARINT64 = 3;
+    static final int PACK_MASK = 0x0F;
+    static final int COMPRESSED = 0x80;
+    static final int OPERAND_REF = 0x40;
+    static final int FILE_REF = 0x20;
+    static final int ACCUMULATE = 0x10;
+
+    // bodies smaller than this are not worth an LZ4 pass
+    static final int COMPRESS_MIN = 1024;
+
+    private static final int BLOCK_HEADER = 8 + 4 * 4;
+
+    private BlockCodec() {
+    }
+
+    public static final class Task {
+        public final long taskId;
+        public final Block block;
+        public final Matrix a;
+        // null when the task refers to operandId instead
+        public final Matrix b;
+        public final long operandId;
+        // paths of the A, B and C files for a FILE_REF task, whose a and b are then null
+        public final String[] files;
+        public final Accumulation accumulation;
+
+        Task(long taskId, Block block, Matrix a, Matrix b, long operandId, Accumulation accumulation) {
+            this(taskId, block, a, b, operandId, null, accumulation);
+        }
+
+        Task(long taskId, Block block, Matrix a, Matrix b, long operandId, String[] files,
+                Accumulation accumulation) {
+            this.taskId = taskId;
+            this.block = block;
+            this.a = a;
+            this.b = b;
+            this.operandId = operandId;
+            this.files = files;
+            this.accumulation = accumulation;
+        }
+    }
+
+    // where a result's C block should be decoded to; null for a matrix of its own
+    public interface Target {
+        Matrix into(long taskId, Block block);
+    }
+
+    public static final class Operand {
+        public final long id;
+        public final Matrix matrix;
+
+        Operand(long id, Matrix matrix) {
+            this.id = id;
+            this.matrix = matrix;
+        }
+    }
+
+    public static final class Result {
+        public final long taskId;
+        public final Block block;
+        public final Matrix c;
+        // the C block of an Accumulation.LONG result, whose c is then null
+        public final LongMatrix wide;
+        public final long computeNanos;
+        // c is the matrix the Target chose rather than one of its own, or null when the worker
+        // wrote the block into the shared C file itself
+        public final boolean inPlace;
+
+        Result(long taskId, Block block, Matrix c, long computeNanos, boolean inPlace) {
+            this(taskId, block, c, null, computeNanos, inPlace);
+        }
+
+        Result(long taskId, Block block, Matrix c, LongMatrix wide, long computeNanos, boolean inPlace) {
+            this.taskId = taskId;
+            this.block = block;
+            this.c = c;
+            this.wide = wide;
+            this.computeNanos = computeNanos;
+            this.inPlace = inPlace;
+        }
+    }
+
+    public static byte[] encodeTask(long taskId, Block block, Matrix a, Matrix b) {
+        return encodeTask(taskId, block, a, b, 0);
+    }
+
+    // features limits the packings the peer has agreed to decode
+    public static byte[] encodeTask(long taskId, Block block, Matrix a, Matrix b, int features) {
+        return encodeTask(taskId, block, a, b, features, 0);
+    }
+
+    // a non-zero operandId leaves the B panel out: the peer already holds it under that id
+    public static byte[] encodeTask(long taskId, Block block, Matrix a, Matrix b, int features, long operandId) {
+        return encodeTask(taskId, block, a, b, features, operandId, Accumulation.INT);
+    }
+
+    // anything but INT needs a peer that agreed to FEATURE_ACCUMULATION
+    public static byte[] encodeTask(long taskId, Block block, Matrix a, Matrix b, int features, long operandId,
+            Accumulation accumulation) {
+        int inner = a.cols();
+        Matrix strip = a.view(block.rowStart, 0, block.rows(), inner);
+        int modeLen = (accumulation.mode() == Accumulation.Mode.INT) ? 0 : 5;
+
+        byte[] out;
+        if (operandId == 0) {
+            out = encodeBody(BLOCK_HEADER + 4, modeLen, features, strip, panel(b, block));
+        } else {
+            out = encodeBody(BLOCK_HEADER + 4, modeLen + 8, features, strip);
+            out[BLOCK_HEADER + 4] |= (byte) OPERAND_REF;
+            ByteBuffer.wrap(out, BLOCK_HEADER + 4 + 1 + modeLen, 8).putLong(operandId);
+        }
+        if (modeLen > 0) {
+            out[BLOCK_HEADER + 4] |= (byte) ACCUMULATE;
+            accumulation.writeTo(ByteBuffer.wrap(out, BLOCK_HEADER + 4 + 1, modeLen));
+        }
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        putHeader(buf, taskId, block);
+        buf.putInt(inner);
+        return out;
+    }
+
+    // a task for a peer on the same host: it reads the operands from the files and writes its C
+    // block into the third one
+    public static byte[] encodeFileTask(long taskId, Block block, int inner, String a, String b, String c) {
+        byte[][] paths = { utf8(a), utf8(b), utf8(c) };
+        int len = BLOCK_HEADER + 4 + 1;
+        for (byte[] p : paths) {
+            len += 2 + p.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        putHeader(buf, taskId, block);
+        buf.putInt(inner);
+        buf.put((byte) FILE_REF);
+        for (byte[] p : paths) {
+            buf.putShort((short) p.length).put(p);
+        }
+        return buf.array();
+    }
+
+    // answers a FILE_REF task once its block is in the C file
+    public static byte[] encodeResultInPlace(long taskId, Block block, long computeNanos) {
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK_HEADER + 8 + 1);
+        putHeader(buf, taskId, block);
+        buf.putLong(computeNanos);
+        buf.put((byte) FILE_REF);
+        return buf.array();
+    }
+
+    // the part of b every block in the same columns needs
+    static Matrix panel(Matrix b, Block block) {
+        return b.view(0, block.colStart, b.rows(), block.cols());
+    }
+
+    public static byte[] encodeOperand(long operandId, Matrix m, int features) {
+        byte[] out = encodeBody(16, 0, features, m);
+        ByteBuffer.wrap(out).putLong(operandId).putInt(m.rows()).putInt(m.cols());
+        return out;
+    }
+
+    public static Operand decodeOperand(ByteBuffer payload) throws IOException {
+        ByteBuffer buf = wrap(payload, 16 + 1);
+        long id = buf.getLong();
+        int rows = buf.getInt();
+        int cols = buf.getInt();
+        if (rows <= 0 || cols <= 0)
+            throw new IOException("Invalid operand shape: " + rows + "x" + cols);
+        return new Operand(id, decodeBody(buf, rows, cols)[0]);
+    }
+
+    // content address for an operand: equal shape and ints give equal ids. Never 0, which means
+    // no operand. Not cryptographic; a collision needs two different matrices in one cache
+    public static long contentId(Matrix m) {
+        long h = 0x9E3779B97F4A7C15L ^ ((long) m.rows() << 32 | m.cols());
+        int[] row = new int[m.cols()];
+        for (int i = 0; i < m.rows(); i++) {
+            m.getRow(i, 0, row, 0, row.length);
+            for (int v : row) {
+                h = (h ^ v) * 0xBF58476D1CE4E5B9L;
+                h ^= h >>> 29;
+            }
+        }
+        h ^= h >>> 32;
+        h *= 0x94D049BB133111EBL;
+        h ^= h >>> 29;
+        return (h == 0) ? 1 : h;
+    }
+
+    public static Task decodeTask(byte[] payload) throws IOException {
+        return decodeTask(payload == null ? null : ByteBuffer.wrap(payload));
+    }
+
+    // reads straight out of the payload view; the only copy is into the operand matrices
+    public static Task decodeTask(ByteBuffer payload) throws IOException {
+        ByteBuffer buf = wrap(payload, BLOCK_HEADER + 4 + 1);
+        long taskId = buf.getLong();
+        Block block = readBlock(buf);
+        int inner = buf.getInt();
+        if (inner <= 0)
+            throw new IOException("Invalid inner dimension: " + inner);
+
+        int format = buf.get() & 0xFF;
+        if (format == FILE_REF) {
+            String[] files = new String[3];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = readPath(buf);
+            }
+            return new Task(taskId, block, null, null, 0, files, Accumulation.INT);
+        }
+        Accumulation accumulation = Accumulation.INT;
+        if ((format & ACCUMULATE) != 0) {
+            if (buf.remaining() < 5)
+                throw new IOException("Block payload too short");
+            try {
+                accumulation = Accumulation.readFrom(buf);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            format &= ~ACCUMULATE;
+        }
+        if ((format & OPERAND_REF) != 0) {
+            if (buf.remaining() < 8)
+                throw new IOException("Block payload too short");
+            long operandId = buf.getLong();
+            Matrix a = decodeBodyAs(format & ~OPERAND_REF, buf, block.rows(), inner)[0];
+            return new Task(taskId, block, a, null, operandId, accumulation);
+        }
+        Matrix[] ab = decodeBodyAs(format, buf, block.rows(), inner, inner, block.cols());
+        return new Task(taskId, block, ab[0], ab[1], 0, accumulation);
+    }
+
+    public static byte[] encodeResult(long taskId, Block block, Matrix c) {
+        return encodeResult(taskId, block, c, 0, 0);
+    }
+
+    public static byte[] encodeResult(long taskId, Block block, Matrix c, int features) {
+        return encodeResult(taskId, block, c, 0, features);
+    }
+
+    public static byte[] encodeResult(long taskId, Block block, Matrix c, long computeNanos, int features) {
+        if (c.rows() != block.rows() || c.cols() != block.cols())
+            throw new IllegalArgumentException("Result does not match block");
+
+        byte[] out = encodeBody(BLOCK_HEADER + 8, 0, features, c);
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        putHeader(buf, taskId, block);
+        buf.putLong(computeNanos);
+        return out;
+    }
+
+    // the C block of an Accumulation.LONG task
+    public static byte[] encodeResult(long taskId, Block block, LongMatrix c, long computeNanos, int features) {
+        if (c.rows() != block.rows() || c.cols() != block.cols())
+            throw new IllegalArgumentException("Result does not match block");
+
+        long rawLen = (long) c.rows() * c.cols() * 8;
+        int pack = PACK_INT64;
+        long bodyLen = rawLen;
+        if ((features & FEATURE_VARINT) != 0) {
+            long varLen = varlongLength(c);
+            if (varLen * 4 < rawLen * 3) {
+                pack = PACK_VARINT64;
+                bodyLen = varLen;
+            }
+        }
+        int packing = pack;
+        byte[] out = finishBody(BLOCK_HEADER + 8, 0, features, packing, bodyLen,
+                (dst, off, len) -> writeLongBody(dst, off, len, packing, c));
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        putHeader(buf, taskId, block);
+        buf.putLong(computeNanos);
+        return out;
+    }
+
+    public static Result decodeResult(byte[] payload) throws IOException {
+        return decodeResult(payload == null ? null : ByteBuffer.wrap(payload));
+    }
+
+    public static Result decodeResult(ByteBuffer payload) throws IOException {
+        return decodeResult(payload, null);
+    }
+
+    // decodes the C block straight into the matrix target picks, e.g. its place in the output
+    public static Result decodeResult(ByteBuffer payload, Target target) throws IOException {
+        ByteBuffer buf = wrap(payload, BLOCK_HEADER + 8 + 1);
+        long taskId = buf.getLong();
+        Block block = readBlock(buf);
+        long computeNanos = buf.getLong();
+
+        if ((buf.get(buf.position()) & 0xFF) == FILE_REF) {
+            if (buf.remaining() != 1)
+                throw new IOException("Block payload size mismatch");
+            return new Result(taskId, block, null, computeNanos, true);
+        }
+
+        int format = buf.get(buf.position()) & 0xFF;
+        if ((format & PACK_MASK) == PACK_INT64 || (format & PACK_MASK) == PACK_VARINT64) {
+            buf.get();
+            LongMatrix wide = decodeLong(format, buf, block.rows(), block.cols());
+            return new Result(taskId, block, null, wide, computeNanos, false);
+        }
+
+        Matrix[] c = { (target == null) ? null : target.into(taskId, block) };
+        if (c[0] != null && (c[0].rows() != block.rows() || c[0].cols() != block.cols()))
+            throw new IllegalArgumentException("Target does not match block");
+        boolean inPlace = c[0] != null;
+        decodeInto(buf.get() & 0xFF, buf, c, block.rows(), block.cols());
+        return new Result(taskId, block, c[0], computeNanos, inPlace);
+    }
+
+    // the payload array with headerLen bytes left for the caller, then format, extraLen more bytes
+    // for the caller, and the body. Varints are used only when they save a quarter of the int32
+    // size, and the LZ4 pass only when it saves an eighth; otherwise the cheaper form goes out
+    private static byte[] encodeBody(int headerLen, int extraLen, int features, Matrix... sections) {
+        long count = 0;
+        for (Matrix m : sections) {
+            count += (long) m.rows() * m.cols();
+        }
+        long rawLen = count * 4;
+
+        int pack = PACK_INT32;
+        long bodyLen = rawLen;
+        if ((features & FEATURE_VARINT) != 0) {
+            long varLen = varintLength(sections);
+            if (varLen * 4 < rawLen * 3) {
+                pack = PACK_VARINT;
+                bodyLen = varLen;
+            }
+        }
+        int packing = pack;
+        return finishBody(headerLen, extraLen, features, packing, bodyLen,
+                (dst, off, len) -> writeBody(dst, off, len, packing, sections));
+    }
+
+    // writes len bytes of packed body at dst[off]
+    private interface BodyWriter {
+        void write(byte[] dst, int off, int len);
+    }
+
+    // lays out header space, format byte, extra bytes and the body, LZ4-compressed when allowed
+    // and worth it
+    private static byte[] finishBody(int headerLen, int extraLen, int features, int pack, long bodyLen,
+            BodyWriter writer) {
+        if (headerLen + 1 + extraLen + 4 + bodyLen > Integer.MAX_VALUE - 64)
+            throw new IllegalArgumentException("Block too large to encode: " + bodyLen + " bytes");
+
+        int start = headerLen + 1 + extraLen;
+        if ((features & FEATURE_LZ4) == 0 || bodyLen < COMPRESS_MIN) {
+            byte[] out = new byte[start + (int) bodyLen];
+            writer.write(out, start, (int) bodyLen);
+            out[headerLen] = (byte) pack;
+            return out;
+        }
+
+        byte[] body = new byte[(int) bodyLen];
+        writer.write(body, 0, body.length);
+        byte[] out = new byte[start + 4 + Lz4.maxCompressedLength(body.length)];
+        int n = Lz4.compress(body, 0, body.length, out, start + 4);
+        if ((long) n * 8 >= bodyLen * 7) {
+            out = new byte[start + body.length];
+            System.arraycopy(body, 0, out, start, body.length);
+            out[headerLen] = (byte) pack;
+            return out;
+        }
+
+        out[headerLen] = (byte) (pack | COMPRESSED);
+        ByteBuffer.wrap(out, start, 4).putInt(body.length);
+        return Arrays.copyOf(out, start + 4 + n);
+    }
+
+    private static void writeBody(byte[] dst, int off, int len, int pack, Matrix... sections) {
+        if (pack == PACK_INT32) {
+            IntBuffer ints = ByteBuffer.wrap(dst, off, len).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            for (Matrix m : sections) {
+                m.writeTo(ints);
+            }
+            return;
+        }
+
+        int p = off;
+        for (Matrix m : sections) {
+            int[] row = new int[m.cols()];
+            for (int i = 0; i < m.rows(); i++) {
+                m.getRow(i, 0, row, 0, row.length);
+                for (int v : row) {
+                    int z = (v << 1) ^ (v >> 31);
+                    while ((z & ~0x7F) != 0) {
+                        dst[p++] = (byte) ((z & 0x7F) | 0x80);
+                        z >>>= 7;
+                    }
+                    dst[p++] = (byte) z;
+                }
+            }
+        }
+    }
+
+    private static long varintLength(Matrix... sections) {
+        long n = 0;
+        for (Matrix m : sections) {
+            int[] row = new int[m.cols()];
+            for (int i = 0; i < m.rows(); i++) {
+                m.getRow(i, 0, row, 0, row.length);
+                for (int v : row) {
+                    int z = (v << 1) ^ (v >> 31);
+                    n += (z == 0) ? 1 : (38 - Integer.numberOfLeadingZeros(z)) / 7;
+                }
+            }
+        }
+        return n;
+    }
+
+    // dims holds rows, cols per section; the matrices are allocated only once the body is known
+    // to be large enough to fill them
+    private static Matrix[] decodeBody(ByteBuffer buf, int... dims) throws IOException {
+        return decodeBodyAs(buf.get() & 0xFF, buf, dims);
+    }
+
+    // the same with the format byte already read
+    private static Matrix[] decodeBodyAs(int format, ByteBuffer buf, int... dims) throws IOException {
+        return decodeInto(format, buf, new Matrix[dims.length / 2], dims);
+    }
+
+    // fills out, allocating the sections that are null
+    private static Matrix[] decodeInto(int format, ByteBuffer buf, Matrix[] out, int... dims) throws IOException {
+        int pack = format & PACK_MASK;
+        if ((pack != PACK_INT32 && pack != PACK_VARINT) || (format & ~(PACK_MASK | COMPRESSED)) != 0)
+            throw new IOException("Unknown block format: " + format);
+
+        long count = 0;
+        for (int s = 0; s < dims.length; s += 2) {
+            count += (long) dims[s] * dims[s + 1];
+        }
+
+        ByteBuffer body = inflate(format, buf, count);
+
+        // every int takes at least one byte, four when not varint-packed
+        long need = (pack == PACK_INT32) ? count * 4 : count;
+        if ((pack == PACK_INT32) ? need != body.remaining() : need > body.remaining())
+            throw new IOException("Block payload size mismatch");
+
+        for (int s = 0; s < out.length; s++) {
+            if (out[s] == null)
+                out[s] = Matrix.heap(dims[2 * s], dims[2 * s + 1]);
+        }
+
+        if (pack == PACK_INT32) {
+            IntBuffer ints = body.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            for (Matrix m : out) {
+                m.readFrom(ints);
+            }
+            return out;
+        }
+
+        for (Matrix m : out) {
+            int[] row = new int[m.cols()];
+            for (int i = 0; i < m.rows(); i++) {
+                for (int j = 0; j < row.length; j++) {
+                    int z = readVarint(body);
+                    row[j] = (z >>> 1) ^ -(z & 1);
+                }
+                m.setRow(i, 0, row, 0, row.length);
+            }
+        }
+        if (body.hasRemaining())
+            throw new IOException("Block payload size mismatch");
+        return out;
+    }
+
+    // the body after the format byte, decompressed when the format says so; count is the values it
+    // holds, each taking at least one byte
+    private static ByteBuffer inflate(int format, ByteBuffer buf, long count) throws IOException {
+        if ((format & COMPRESSED) == 0)
+            return buf;
+        if (buf.remaining() < 4)
+            throw new IOException("Block payload too short");
+        int rawLen = buf.getInt();
+        if (rawLen < count || rawLen > FrameDecoder.MAX_FRAME)
+            throw new IOException("Invalid block length: " + rawLen);
+        byte[] raw = new byte[rawLen];
+        if (buf.hasArray()) {
+            Lz4.decompress(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), raw, 0, rawLen);
+        } else {
+            byte[] packed = new byte[buf.remaining()];
+            buf.duplicate().get(packed);
+            Lz4.decompress(packed, 0, packed.length, raw, 0, rawLen);
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static void writeLongBody(byte[] dst, int off, int len, int pack, LongMatrix m) {
+        if (pack == PACK_INT64) {
+            m.writeTo(ByteBuffer.wrap(dst, off, len).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+            return;
+        }
+
+        int p = off;
+        long[] row = new long[m.cols()];
+        for (int i = 0; i < m.rows(); i++) {
+            m.getRow(i, 0, row, 0, row.length);
+            for (long v : row) {
+                long z = (v << 1) ^ (v >> 63);
+                while ((z & ~0x7FL) != 0) {
+                    dst[p++] = (byte) ((z & 0x7F) | 0x80);
+                    z >>>= 7;
+                }
+                dst[p++] = (byte) z;
+            }
+        }
+    }
+
+    private static long varlongLength(LongMatrix m) {
+        long n = 0;
+        long[] row = new long[m.cols()];
+        for (int i = 0; i < m.rows(); i++) {
+            m.getRow(i, 0, row, 0, row.length);
+            for (long v : row) {
+                long z = (v << 1) ^ (v >> 63);
+                n += (z == 0) ? 1 : (70 - Long.numberOfLeadingZeros(z)) / 7;
+            }
+        }
+        return n;
+    }
+
+    // the dimensions come off the wire, so the block is only allocated once the body is known to
+    // hold that many values
+    private static LongMatrix decodeLong(int format, ByteBuffer buf, int rows, int cols) throws IOException {
+        int pack = format & PACK_MASK;
+        if ((format & ~(PACK_MASK | COMPRESSED)) != 0)
+            throw new IOException("Unknown block format: " + format);
+
+        long count = (long) rows * cols;
+        ByteBuffer body = inflate(format, buf, count);
+        long need = (pack == PACK_INT64) ? count * 8 : count;
+        if ((pack == PACK_INT64) ? need != body.remaining() : need > body.remaining())
+            throw new IOException("Block payload size mismatch");
+
+        LongMatrix out = LongMatrix.heap(rows, cols);
+        if (pack == PACK_INT64) {
+            out.readFrom(body.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+            return out;
+        }
+
+        long[] row = new long[out.cols()];
+        for (int i = 0; i < out.rows(); i++) {
+            for (int j = 0; j < row.length; j++) {
+                long z = readVarlong(body);
+                row[j] = (z >>> 1) ^ -(z & 1);
+            }
+            out.setRow(i, 0, row, 0, row.length);
+        }
+        if (body.hasRemaining())
+            throw new IOException("Block payload size mismatch");
+        return out;
+    }
+
+    private static long readVarlong(ByteBuffer buf) throws IOException {
+        long z = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            if (!buf.hasRemaining())
+                throw new IOException("Block payload size mismatch");
+            int b = buf.get();
+            z |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return z;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readVarint(ByteBuffer buf) throws IOException {
+        int z = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buf.hasRemaining())
+                throw new IOException("Block payload size mismatch");
+            int b = buf.get();
+            z |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return z;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void putHeader(ByteBuffer buf, long taskId, Block block) {
+        buf.putLong(taskId);
+        buf.putInt(block.rowStart);
+        buf.putInt(block.rowEnd);
+        buf.putInt(block.colStart);
+        buf.putInt(block.colEnd);
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xFFFF)
+            throw new IllegalArgumentException("Path too long");
+        return b;
+    }
+
+    private static String readPath(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 2)
+            throw new IOException("Block payload too short");
+        int len = buf.getShort() & 0xFFFF;
+        if (len == 0 || len > buf.remaining())
+            throw new IOException("Invalid path length: " + len);
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer wrap(ByteBuffer payload, int minLen) throws IOException {
+        if (payload == null || payload.remaining() < minLen)
+            throw new IOException("Block payload too short");
+        return payload.slice();
+    }
+
+    private static Block readBlock(ByteBuffer buf) throws IOException {
+        try {
+            return new Block(buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package pdc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// one distributed C = A x B: the ready queue of output blocks and the assembled result
+final class BlockJob {
+
+    final Matrix a;
+    final Matrix b;
+    final Matrix c;
+    // how blocks are summed; a LONG job assembles its result here and has no c
+    final Accumulation accumulation;
+    final LongMatrix wide;
+
+    // split pieces are never thinner than this
+    static final int MIN_CARVE_ROWS = 8;
+    // a block that has failed on this many different workers fails the job
+    static final int MAX_BLOCK_FAILURES = 3;
+
+    private final LinkedBlockingDeque<Block> ready;
+    private final Set<Block> completed = ConcurrentHashMap.newKeySet();
+    // blocks whose region of c someone is writing, by an in-place decode or a completion; one
+    // writer at a time, so a decode that fails partway neither mixes with another copy nor lands
+    // on a block that was already reported complete
+    private final Set<Block> writing = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch remaining;
+    private volatile String failure;
+
+    // halves of blocks that were split for a slower worker, and how many halves each parent still
+    // waits for; a parent counts as completed once both of its halves are
+    private final ConcurrentHashMap<Block, Block> parents = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Block, AtomicInteger> openHalves = new ConcurrentHashMap<>();
+
+    // pull mode: each worker's contiguous range of blocks, taken from the front by its owner and
+    // from the back by thieves; the ready queue then only holds requeued and released blocks
+    private final ConcurrentHashMap<String, ConcurrentLinkedDeque<Block>> ranges = new ConcurrentHashMap<>();
+
+    // ids of the workers that sent back an error for each block
+    private final ConcurrentHashMap<Block, Set<String>> failedOn = new ConcurrentHashMap<>();
+
+    // content ids of the B panels blocks have needed so far, by column range
+    private final ConcurrentHashMap<Long, Long> operandIds = new ConcurrentHashMap<>();
+
+    // how long finished blocks took on their workers, for straggler detection
+    private final long[] durations;
+    private int samples;
+
+    // streaming gather: columns of each output row that have arrived, and who hears about rows
+    // once they are whole; both null when nobody listens
+    private final int[] colsDone;
+    private final RowRangeListener listener;
+
+    BlockJob(Matrix a, Matrix b, List<Block> blocks) {
+        this(a, b, Matrix.heap(a.rows(), b.cols()), blocks, null);
+    }
+
+    // results are assembled in c, which may be any preallocated matrix of the product's shape
+    BlockJob(Matrix a, Matrix b, Matrix c, List<Block> blocks, RowRangeListener listener) {
+        this(a, b, c, null, Accumulation.INT, blocks, listener);
+    }
+
+    BlockJob(Matrix a, Matrix b, Accumulation accumulation, List<Block> blocks) {
+        this(a, b, (accumulation.mode() == Accumulation.Mode.LONG) ? null : Matrix.heap(a.rows(), b.cols()),
+                (accumulation.mode() == Accumulation.Mode.LONG) ? LongMatrix.heap(a.rows(), b.cols()) : null,
+                accumulation, blocks, null);
+    }
+
+    private BlockJob(Matrix a, Matrix b, Matrix c, LongMatrix wide, Accumulation accumulation, List<Block> blocks,
+            RowRangeListener listener) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.wide = wide;
+        this.accumulation = accumulation;
+        this.ready = new LinkedBlockingDeque<>(blocks);
+        this.remaining = new CountDownLatch(blocks.size());
+        this.durations = new long[blocks.size()];
+        this.listener = listener;
+        this.colsDone = (listener == null) ? null : new int[c.rows()];
+    }
+
+    int blockCount() {
+        return durations.length;
+    }
+
+    synchronized void recordDuration(long nanos) {
+        if (samples < durations.length)
+            durations[samples++] = nanos;
+    }
+
+    // p-th percentile (0..1) of the recorded durations; -1 until minSamples have been recorded
+    synchronized long percentile(double p, int minSamples) {
+        if (samples == 0 || samples < minSamples)
+            return -1;
+        long[] sorted = Arrays.copyOf(durations, samples);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p * samples) - 1;
+        return sorted[Math.max(0, Math.min(samples - 1, rank))];
+    }
+
+    Block nextReady(long timeoutMs) throws InterruptedException {
+        Block block;
+        do {
+            block = ready.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } while (block != null && completed.contains(block));
+        return block;
+    }
+
+    // id of the B panel the block multiplies with; hashed once per column range
+    long operandId(Block block) {
+        long cols = (long) block.colStart << 32 | block.colEnd;
+        return operandIds.computeIfAbsent(cols, k -> BlockCodec.contentId(BlockCodec.panel(b, block)));
+    }
+
+    // deals the ready queue out in contiguous ranges, one per worker
+    void assignRanges(List<String> workerIds) {
+        List<Block> all = new ArrayList<>();
+        ready.drainTo(all);
+        int n = workerIds.size();
+        for (int i = 0; i < n; i++) {
+            List<Block> range = all.subList(all.size() * i / n, all.size() * (i + 1) / n);
+            ranges.put(workerIds.get(i), new ConcurrentLinkedDeque<>(range));
+        }
+    }
+
+    // the worker's own range first, then the shared queue; null when both are empty
+    Block take(String workerId) {
+        ConcurrentLinkedDeque<Block> own = ranges.get(workerId);
+        Block block;
+        if (own != null) {
+            while ((block = own.pollFirst()) != null) {
+                if (!completed.contains(block))
+                    return block;
+            }
+        }
+        // requeued blocks the worker has already failed are left for the others
+        for (Block queued : ready) {
+            if (failedOn(queued, workerId) || !ready.remove(queued))
+                continue;
+            if (!completed.contains(queued))
+                return queued;
+        }
+        return null;
+    }
+
+    // moves the back half of the longest other range onto the front of the thief's; returns how
+    // many blocks moved
+    int stealHalf(String thiefId) {
+        ConcurrentLinkedDeque<Block> victim = null;
+        int longest = 0;
+        for (Map.Entry<String, ConcurrentLinkedDeque<Block>> e : ranges.entrySet()) {
+            if (e.getKey().equals(thiefId))
+                continue;
+            int size = e.getValue().size();
+            if (size > longest) {
+                longest = size;
+                victim = e.getValue();
+            }
+        }
+        if (victim == null)
+            return 0;
+
+        List<Block> loot = new ArrayList<>();
+        for (int i = 0; i < (longest + 1) / 2; i++) {
+            Block block = victim.pollLast();
+            if (block == null)
+                break;
+            loot.add(block);
+        }
+        ConcurrentLinkedDeque<Block> own = ranges.computeIfAbsent(thiefId, id -> new ConcurrentLinkedDeque<>());
+        for (Block block : loot) {
+            own.addFirst(block);
+        }
+        return loot.size();
+    }
+
+    // a departed worker's unsent range goes to the shared queue
+    void releaseRange(String workerId) {
+        ConcurrentLinkedDeque<Block> range = ranges.remove(workerId);
+        if (range != null)
+            ready.addAll(range);
+    }
+
+    // anything at all still waiting to be sent, for finishing the job locally
+    Block takeAny() {
+        Block block = take("");
+        if (block != null)
+            return block;
+        for (ConcurrentLinkedDeque<Block> range : ranges.values()) {
+            while ((block = range.pollFirst()) != null) {
+                if (!completed.contains(block))
+                    return block;
+            }
+        }
+        return null;
+    }
+
+    // blocks waiting to be sent, in the shared queue and in every worker's range; approximate
+    // while the job is running
+    int queued() {
+        int n = ready.size();
+        for (ConcurrentLinkedDeque<Block> range : ranges.values()) {
+            n += range.size();
+        }
+        return n;
+    }
+
+    // lost blocks go to the front so they are not starved by the rest of the job
+    void requeue(Block block) {
+        if (!completed.contains(block))
+            ready.addFirst(block);
+    }
+
+    // the number of different workers the block has now failed on
+    int recordFailure(Block block, String workerId) {
+        Set<String> ids = failedOn.computeIfAbsent(block, k -> ConcurrentHashMap.newKeySet());
+        ids.add(workerId);
+        return ids.size();
+    }
+
+    boolean failedOn(Block block, String workerId) {
+        Set<String> ids = failedOn.get(block);
+        return ids != null && ids.contains(workerId);
+    }
+
+    boolean isCompleted(Block block) {
+        return completed.contains(block);
+    }
+
+    // the right to write the block's region of c; false once it is completed or while another
+    // writer holds it
+    boolean claim(Block block) {
+        if (completed.contains(block) || !writing.add(block))
+            return false;
+        // a writer may have completed the block and let go between the two checks
+        if (completed.contains(block)) {
+            writing.remove(block);
+            return false;
+        }
+        return true;
+    }
+
+    // hands back a claim whose write did not complete the block
+    void release(Block block) {
+        writing.remove(block);
+    }
+
+    boolean complete(Block block, Matrix partial) {
+        if (!claim(block))
+            return false;
+        try {
+            c.view(block).copyFrom(partial);
+            completed.add(block);
+        } finally {
+            writing.remove(block);
+        }
+        arrived(block);
+        settle(block);
+        return true;
+    }
+
+    boolean complete(Block block, LongMatrix partial) {
+        if (!completed.add(block))
+            return false;
+
+        wide.view(block).copyFrom(partial);
+        arrived(block);
+        settle(block);
+        return true;
+    }
+
+    // for a block whose ints were decoded straight into its place in c; the caller holds its claim
+    boolean completeInPlace(Block block) {
+        boolean won = completed.add(block);
+        writing.remove(block);
+        if (!won)
+            return false;
+
+        arrived(block);
+        settle(block);
+        return true;
+    }
+
+    // reported before settle(), so every range is out by the time the job is done
+    private void arrived(Block block) {
+        if (listener == null)
+            return;
+
+        List<int[]> whole = new ArrayList<>(1);
+        synchronized (colsDone) {
+            int start = -1;
+            for (int i = block.rowStart; i < block.rowEnd; i++) {
+                colsDone[i] += block.cols();
+                boolean done = colsDone[i] == c.cols();
+                if (done && start < 0) {
+                    start = i;
+                } else if (!done && start >= 0) {
+                    whole.add(new int[] { start, i });
+                    start = -1;
+                }
+            }
+            if (start >= 0)
+                whole.add(new int[] { start, block.rowEnd });
+        }
+
+        try {
+            for (int[] rows : whole) {
+                listener.rowsCompleted(rows[0], rows[1]);
+            }
+        } catch (RuntimeException e) {
+            fail("Row listener failed: " + e);
+        }
+    }
+
+    private void settle(Block block) {
+        Block parent = parents.get(block);
+        if (parent == null) {
+            remaining.countDown();
+        } else if (openHalves.get(parent).decrementAndGet() == 0 && completed.add(parent)) {
+            settle(parent);
+        }
+    }
+
+    // the first rows of block, about share of them, to send now; the rest goes back to the front
+    // of the queue. Blocks too small to split come back whole
+    Block carve(Block block, double share) {
+        int rows = block.rows();
+        int keep = (int) Math.ceil(rows * share);
+        if (share >= 1.0 || rows < 2 * MIN_CARVE_ROWS || keep >= rows)
+            return block;
+        keep = Math.max(MIN_CARVE_ROWS, Math.min(rows - MIN_CARVE_ROWS, keep));
+
+        Block head = new Block(block.rowStart, block.rowStart + keep, block.colStart, block.colEnd);
+        Block tail = new Block(block.rowStart + keep, block.rowEnd, block.colStart, block.colEnd);
+        openHalves.put(block, new AtomicInteger(2));
+        parents.put(head, block);
+        parents.put(tail, block);
+        ready.addFirst(tail);
+        return head;
+    }
+
+    // computed into scratch first: a late worker result for the same block must not be added twice
+    void computeLocally(Block block) {
+        if (completed.contains(block))
+            return;
+
+        int inner = b.rows();
+        Matrix strip = a.view(block.rowStart, 0, block.rows(), inner);
+        Matrix panel = b.view(0, block.colStart, inner, block.cols());
+        switch (accumulation.mode()) {
+            case LONG:
+                complete(block, MatrixGenerator.multiplyLong(strip, panel));
+                break;
+            case MOD:
+                complete(block, MatrixGenerator.multiplyMod(strip, panel, accumulation.modulus()));
+                break;
+            default:
+                complete(block, MatrixGenerator.multiply(strip, panel));
+                break;
+        }
+    }
+
+    void fail(String reason) {
+        failure = reason;
+        while (remaining.getCount() > 0)
+            remaining.countDown();
+    }
+
+    String failure() {
+        return failure;
+    }
+
+    boolean awaitDone(long timeoutMs) throws InterruptedException {
+        return remaining.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isDone() {
+        return remaining.getCount() == 0;
+    }
+}
@@ -0,0 +1,63 @@
+package pdc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class BlockPartitioner {
+
+    // aim for a few blocks per worker so a slow node does not hold up the tail
+    static final int BLOCKS_PER_WORKER = 4;
+
+    private BlockPartitioner() {
+    }
+
+    public static List<Block> partition(int rows, int cols, int rowBlock, int colBlock) {
+        if (rows <= 0 || cols <= 0)
+            throw new IllegalArgumentException("Empty matrix");
+        if (rowBlock <= 0 || colBlock <= 0)
+            throw new IllegalArgumentException("Block size must be positive");
+
+        List<Block> blocks = new ArrayList<>();
+        for (int r = 0; r < rows; r += rowBlock) {
+            int rEnd = Math.min(rows, r + rowBlock);
+            for (int c = 0; c < cols; c += colBlock) {
+                int cEnd = Math.min(cols, c + colBlock);
+                blocks.add(new Block(r, rEnd, c, cEnd));
+            }
+        }
+        return blocks;
+    }
+
+    // split the output into roughly workers * BLOCKS_PER_WORKER tiles,
+    // cutting rows first and only splitting columns once rows run out
+    public static List<Block> forWorkers(int rows, int cols, int workers) {
+        if (workers <= 0)
+            workers = 1;
+
+        int target = workers * BLOCKS_PER_WORKER;
+        int rowParts = Math.min(rows, target);
+        int colParts = Math.min(cols, Math.max(1, (target + rowParts - 1) / rowParts));
+
+        int rowBlock = (rows + rowParts - 1) / rowParts;
+        int colBlock = (cols + colParts - 1) / colParts;
+        return partition(rows, cols, rowBlock, colBlock);
+    }
+
+    // forWorkers() tiles, cut further until a task's A strip (rows x inner), B panel (inner x cols)
+    // and C block together fit in maxTaskBytes, so operands larger than the heap stream through in
+    // pieces. The panel of B is narrowed first, then strips get fewer rows
+    public static List<Block> forBudget(int rows, int cols, int inner, int workers, long maxTaskBytes) {
+        List<Block> tiles = forWorkers(rows, cols, workers);
+        Block first = tiles.get(0);
+        int rowBlock = first.rows();
+        int colBlock = first.cols();
+
+        long maxInts = Math.max(1, maxTaskBytes / 4);
+        colBlock = (int) Math.max(1, Math.min(colBlock, maxInts / 2 / inner));
+        long perRow = (long) inner + colBlock;
+        rowBlock = (int) Math.max(1, Math.min(rowBlock, (maxInts - (long) inner * colBlock) / perRow));
+        if (rowBlock == first.rows() && colBlock == first.cols())
+            return tiles;
+        return partition(rows, cols, rowBlock, colBlock);
+    }
+}
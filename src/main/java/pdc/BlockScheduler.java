@@ -0,0 +1,41 @@
+package pdc;
+
+import java.util.List;
+
+// decides which worker gets the next block of a job, how many blocks it may hold, and how big a
+// slice of a block it gets; see Schedulers for the stock policies
+public interface BlockScheduler {
+
+    // what a policy gets to see of a worker
+    interface Load {
+        String id();
+
+        // blocks sent and not yet answered, across every job
+        int outstanding();
+
+        // blocks the worker asked to be sent at once (its task threads plus one)
+        int window();
+
+        // EWMA of multiply-adds per nanosecond over recently completed blocks; 0 until one is reported
+        double throughput();
+    }
+
+    // the workers a job of workerCount should use, most preferred first
+    default <W extends Load> List<W> choose(List<W> alive, int workerCount) {
+        return alive.subList(0, Math.min(workerCount, alive.size()));
+    }
+
+    // index into ready of the worker for the next block, or -1 to wait; every worker in ready is
+    // below its depth()
+    int pick(List<? extends Load> ready);
+
+    // blocks this worker may hold at once
+    default int depth(Load worker, List<? extends Load> all) {
+        return worker.window();
+    }
+
+    // fraction (0, 1] of a ready block to hand this worker; the rest goes back on the queue
+    default double share(Load worker, List<? extends Load> all) {
+        return 1.0;
+    }
+}
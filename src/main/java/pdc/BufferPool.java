@@ -0,0 +1,112 @@
+package pdc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// power-of-two size classes of direct buffers. A released buffer goes back to its class's free
+// list, up to a per-class byte budget, so steady-state framing reuses the same few buffers
+// instead of allocating (and, for big frames, humongous-allocating) per message
+public final class BufferPool {
+
+    static final int MIN_SHIFT = 12; // 4 KB
+    static final int MAX_SHIFT = 26; // 64 MB; larger requests are allocated and dropped
+    static final long IDLE_BYTES_PER_CLASS = 32L * 1024 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+    private final AtomicInteger[] idleCount;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public BufferPool() {
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        free = new ConcurrentLinkedQueue[classes];
+        idleCount = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            idleCount[i] = new AtomicInteger();
+        }
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    // a cleared buffer with at least size bytes of capacity and its limit set to size
+    public PooledBuffer acquire(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Negative size");
+
+        int cls = sizeClass(size);
+        ByteBuffer buf = null;
+        if (cls >= 0) {
+            buf = free[cls].poll();
+            if (buf != null) {
+                idleCount[cls].decrementAndGet();
+                idleBytes.addAndGet(-buf.capacity());
+            }
+        }
+
+        if (buf != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buf = ByteBuffer.allocateDirect(cls >= 0 ? 1 << (cls + MIN_SHIFT) : size);
+        }
+
+        buf.clear().limit(size);
+        outstanding.addAndGet(buf.capacity());
+        return new PooledBuffer(this, buf, cls);
+    }
+
+    void recycle(ByteBuffer buf, int cls) {
+        outstanding.addAndGet(-buf.capacity());
+        if (cls < 0)
+            return;
+
+        int cap = (int) Math.max(2, IDLE_BYTES_PER_CLASS >> (cls + MIN_SHIFT));
+        if (idleCount[cls].incrementAndGet() > cap) {
+            idleCount[cls].decrementAndGet();
+            return;
+        }
+        idleBytes.addAndGet(buf.capacity());
+        free[cls].add(buf);
+    }
+
+    static int sizeClass(int size) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+        return (shift > MAX_SHIFT) ? -1 : shift - MIN_SHIFT;
+    }
+
+    public Stats stats() {
+        return new Stats(hits.get(), misses.get(), outstanding.get(), idleBytes.get());
+    }
+
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        // capacity handed out and not yet released
+        public final long bytesOutstanding;
+        // capacity parked in the free lists
+        public final long bytesIdle;
+
+        Stats(long hits, long misses, long bytesOutstanding, long bytesIdle) {
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesOutstanding = bytesOutstanding;
+            this.bytesIdle = bytesIdle;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " outstanding=" + bytesOutstanding + " idle=" + bytesIdle;
+        }
+    }
+}
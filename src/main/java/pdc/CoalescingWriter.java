@@ -0,0 +1,176 @@
+package pdc;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Nagle-style transport for a blocking socket: small frames are encoded into one pooled buffer and
+// go out together, as a single TYPE_BATCH frame when there are several, once maxBytes are waiting
+// or the first of them has waited maxDelayNanos. A frame larger than maxBytes goes straight out
+// behind whatever was waiting
+public final class CoalescingWriter implements RpcClient.Transport {
+
+    static final long DEFAULT_MAX_DELAY_NANOS = 200_000;
+    static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+    // one timer thread keeps every writer's deadline but never writes: a peer that stops reading
+    // would stall the flushes of every other connection behind it. Due batches are handed to the
+    // writer's flusher instead
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+    // flusher for writers that are not given one; a flush blocked on its peer holds only its own thread
+    private static final ExecutorService FLUSHERS = Executors.newCachedThreadPool(r -> {
+        Thread th = new Thread(r, "rpc-flush");
+        th.setDaemon(true);
+        return th;
+    });
+
+    private final Socket socket;
+    private final long maxDelayNanos;
+    private final int maxBytes;
+    private final Executor flusher;
+
+    // guards everything below; a lock rather than synchronized so that a virtual thread blocked
+    // in a socket write does not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // count(4) slot, then the encoded frames
+    private PooledBuffer pending;
+    private int count;
+    // type of the frame last added, which is the frame a one-frame flush sends
+    private byte lastType;
+    private ScheduledFuture<?> deadline;
+
+    // maxDelayNanos <= 0 writes every frame through as it comes
+    public CoalescingWriter(Socket socket, long maxDelayNanos, int maxBytes) {
+        this(socket, maxDelayNanos, maxBytes, FLUSHERS);
+    }
+
+    // batches whose delay is up are sent on flusher, e.g. the connection's own writer thread
+    public CoalescingWriter(Socket socket, long maxDelayNanos, int maxBytes, Executor flusher) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive");
+        this.socket = socket;
+        this.maxDelayNanos = maxDelayNanos;
+        this.maxBytes = maxBytes;
+        this.flusher = flusher;
+    }
+
+    @Override
+    public void write(Message msg) throws IOException {
+        int size = msg.headerLength() + msg.payloadLength();
+        lock.lock();
+        try {
+            if (maxDelayNanos <= 0 || size > maxBytes) {
+                flush();
+                RPC.send(socket, msg);
+                return;
+            }
+
+            if (pending != null && pending.buffer().remaining() < size)
+                flush();
+            if (pending == null) {
+                pending = RPC.pool().acquire(4 + maxBytes);
+                pending.buffer().position(4);
+                deadline = TIMER.schedule(this::due, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+            msg.encodeTo(pending.buffer());
+            lastType = msg.messageType;
+            count++;
+            if (!pending.buffer().hasRemaining())
+                flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // sends whatever is waiting now
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            PooledBuffer out = pending;
+            if (out == null)
+                return;
+            int n = count;
+            pending = null;
+            count = 0;
+            deadline.cancel(false);
+            deadline = null;
+
+            try {
+                ByteBuffer buf = out.buffer();
+                buf.flip();
+                if (n == 1) {
+                    // a lone frame is already encoded; no point wrapping it
+                    buf.position(4);
+                    RPC.countSent(lastType, buf.remaining());
+                    RPC.sendRaw(socket, buf);
+                } else {
+                    buf.putInt(0, n);
+                    Message batch = new Message();
+                    batch.messageType = Message.TYPE_BATCH;
+                    batch.setPayload(buf);
+                    RPC.send(socket, batch);
+                }
+            } finally {
+                out.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    // the socket goes first, so a writer blocked on a stalled peer fails and lets go of the lock
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        lock.lock();
+        try {
+            if (pending != null) {
+                deadline.cancel(false);
+                pending.release();
+                pending = null;
+                count = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // on the timer thread: no socket I/O here, and no waiting for a lock a stalled sender may hold
+    private void due() {
+        try {
+            flusher.execute(this::flushOrClose);
+        } catch (RejectedExecutionException e) {
+            // the connection is shutting down; close() drops what was waiting
+        }
+    }
+
+    // the flusher has nobody to report to: a failed write closes the socket, which the reader notices
+    private void flushOrClose() {
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread th = new Thread(r, "rpc-coalesce");
+            th.setDaemon(true);
+            return th;
+        });
+        t.setRemoveOnCancelPolicy(true);
+        return t;
+    }
+}
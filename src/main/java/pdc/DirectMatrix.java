@@ -0,0 +1,104 @@
+package pdc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+// off-heap matrix: the store is a direct buffer, so large operands stay out of the GC'd heap
+// and can be handed to channel I/O without an intermediate array
+public final class DirectMatrix extends Matrix {
+
+    private final IntBuffer data;
+    private final int offset;
+    private final int stride;
+
+    DirectMatrix(int rows, int cols) {
+        this(ByteBuffer.allocateDirect(Math.multiplyExact(Math.multiplyExact(rows, cols), 4))
+                .order(ByteOrder.nativeOrder()).asIntBuffer(), 0, cols, rows, cols);
+    }
+
+    DirectMatrix(IntBuffer data, int offset, int stride, int rows, int cols) {
+        super(rows, cols);
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    // wraps rows * cols ints of an existing buffer, starting at its current position
+    public static DirectMatrix wrap(ByteBuffer buf, int rows, int cols) {
+        IntBuffer ints = buf.slice().order(buf.order()).asIntBuffer();
+        if (ints.remaining() < rows * cols)
+            throw new IllegalArgumentException("Buffer too small for dimensions");
+        return new DirectMatrix(ints, 0, cols, rows, cols);
+    }
+
+    public IntBuffer buffer() {
+        return data.duplicate();
+    }
+
+    @Override
+    public int get(int i, int j) {
+        return data.get(offset + i * stride + j);
+    }
+
+    @Override
+    public void set(int i, int j, int value) {
+        data.put(offset + i * stride + j, value);
+    }
+
+    @Override
+    public Matrix view(int row, int col, int rows, int cols) {
+        checkView(row, col, rows, cols);
+        return new DirectMatrix(data, offset + row * stride + col, stride, rows, cols);
+    }
+
+    @Override
+    public void getRow(int i, int j, int[] dst, int dstOff, int len) {
+        IntBuffer d = data.duplicate();
+        d.position(offset + i * stride + j);
+        d.get(dst, dstOff, len);
+    }
+
+    @Override
+    public void setRow(int i, int j, int[] src, int srcOff, int len) {
+        IntBuffer d = data.duplicate();
+        d.position(offset + i * stride + j);
+        d.put(src, srcOff, len);
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return stride == cols || rows <= 1;
+    }
+
+    @Override
+    public void writeTo(IntBuffer dst) {
+        IntBuffer d = data.duplicate();
+        if (isContiguous()) {
+            d.position(offset).limit(offset + rows * cols);
+            dst.put(d);
+            return;
+        }
+        for (int i = 0; i < rows; i++) {
+            int start = offset + i * stride;
+            d.limit(start + cols).position(start);
+            dst.put(d);
+        }
+    }
+
+    @Override
+    public void readFrom(IntBuffer src) {
+        IntBuffer d = data.duplicate();
+        int runs = isContiguous() ? 1 : rows;
+        int len = isContiguous() ? rows * cols : cols;
+
+        for (int i = 0; i < runs; i++) {
+            int start = offset + i * stride;
+            d.limit(start + len).position(start);
+            IntBuffer part = src.duplicate();
+            part.limit(part.position() + len);
+            d.put(part);
+            src.position(src.position() + len);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package pdc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// divide-and-conquer multiply on long-lived work-stealing pools; callers block in invoke()
+// instead of spinning, and concurrent jobs share the same worker threads
+final class ForkJoinMultiply {
+
+    // below this many multiply-adds a task runs the sequential kernel (about 64 x 64 x 64)
+    static final long SEQUENTIAL_CUTOFF = 1L << 18;
+    // never split a dimension below this; tiny tiles cost more in task overhead than they save
+    static final int MIN_SPLIT = 32;
+    private static final int MAX_PARALLELISM = 256;
+
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private ForkJoinMultiply() {
+    }
+
+    // one pool per parallelism level, created on first use and then reused by every call
+    static ForkJoinPool pool(int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        return POOLS.computeIfAbsent(Math.min(threads, MAX_PARALLELISM), ForkJoinPool::new);
+    }
+
+    static void multiply(Matrix a, Matrix b, Matrix c, int threads) {
+        pool(threads).invoke(new Quadrants(a, b, c));
+    }
+
+    static void multiply(int[][] a, int[][] b, int[][] c, MultiplyStrategy strategy, int threads) {
+        pool(threads).invoke(new RowBands(a, b, c, strategy, 0, a.length));
+    }
+
+    static void multiplyLong(Matrix a, Matrix b, LongMatrix c, int threads) {
+        pool(threads).invoke(new WideRows(a, b, c, null, 0, 0, a.rows()));
+    }
+
+    static void multiplyMod(Matrix a, Matrix b, Matrix c, int modulus, int threads) {
+        pool(threads).invoke(new WideRows(a, b, null, c, modulus, 0, a.rows()));
+    }
+
+    // c += a x b over views: splits C into quadrants while both sides are large, otherwise halves
+    // the longer side; when only the inner dimension is large the two k-halves run one after the
+    // other so they never race on the same C cells
+    static final class Quadrants extends RecursiveAction {
+        private final Matrix a;
+        private final Matrix b;
+        private final Matrix c;
+
+        Quadrants(Matrix a, Matrix b, Matrix c) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        @Override
+        protected void compute() {
+            int n = c.rows();
+            int p = c.cols();
+            int m = a.cols();
+
+            if ((long) n * p * m <= SEQUENTIAL_CUTOFF || (n < 2 * MIN_SPLIT && p < 2 * MIN_SPLIT && m < 2 * MIN_SPLIT)) {
+                MatrixKernels.multiplyRows(a, b, c, 0, n);
+                return;
+            }
+
+            int n2 = n / 2;
+            int p2 = p / 2;
+            int m2 = m / 2;
+
+            if (n >= 2 * MIN_SPLIT && p >= 2 * MIN_SPLIT) {
+                Matrix a0 = a.view(0, 0, n2, m);
+                Matrix a1 = a.view(n2, 0, n - n2, m);
+                Matrix b0 = b.view(0, 0, m, p2);
+                Matrix b1 = b.view(0, p2, m, p - p2);
+                invokeAll(new Quadrants(a0, b0, c.view(0, 0, n2, p2)),
+                        new Quadrants(a0, b1, c.view(0, p2, n2, p - p2)),
+                        new Quadrants(a1, b0, c.view(n2, 0, n - n2, p2)),
+                        new Quadrants(a1, b1, c.view(n2, p2, n - n2, p - p2)));
+            } else if (n >= 2 * MIN_SPLIT && n >= p) {
+                invokeAll(new Quadrants(a.view(0, 0, n2, m), b, c.view(0, 0, n2, p)),
+                        new Quadrants(a.view(n2, 0, n - n2, m), b, c.view(n2, 0, n - n2, p)));
+            } else if (p >= 2 * MIN_SPLIT) {
+                invokeAll(new Quadrants(a, b.view(0, 0, m, p2), c.view(0, 0, n, p2)),
+                        new Quadrants(a, b.view(0, p2, m, p - p2), c.view(0, p2, n, p - p2)));
+            } else {
+                new Quadrants(a.view(0, 0, n, m2), b.view(0, 0, m2, p), c).compute();
+                new Quadrants(a.view(0, m2, n, m - m2), b.view(m2, 0, m - m2, p), c).compute();
+            }
+        }
+    }
+
+    // the LONG and MOD kernels: halves the rows of C down to the cutoff; exactly one of wide and
+    // mod is set
+    static final class WideRows extends RecursiveAction {
+        private final Matrix a;
+        private final Matrix b;
+        private final LongMatrix wide;
+        private final Matrix mod;
+        private final int modulus;
+        private final int lo;
+        private final int hi;
+
+        WideRows(Matrix a, Matrix b, LongMatrix wide, Matrix mod, int modulus, int lo, int hi) {
+            this.a = a;
+            this.b = b;
+            this.wide = wide;
+            this.mod = mod;
+            this.modulus = modulus;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = hi - lo;
+            if (rows <= 1 || rows * (long) b.rows() * b.cols() <= SEQUENTIAL_CUTOFF) {
+                if (wide != null)
+                    MatrixKernels.multiplyRowsLong(a, b, wide, lo, hi);
+                else
+                    MatrixKernels.multiplyRowsMod(a, b, mod, lo, hi, modulus);
+                return;
+            }
+
+            int mid = lo + rows / 2;
+            invokeAll(new WideRows(a, b, wide, mod, modulus, lo, mid), new WideRows(a, b, wide, mod, modulus, mid, hi));
+        }
+    }
+
+    // jagged inputs: split the rows of C in halves and run the chosen strategy on each band
+    static final class RowBands extends RecursiveAction {
+        private final int[][] a;
+        private final int[][] b;
+        private final int[][] c;
+        private final MultiplyStrategy strategy;
+        private final int lo;
+        private final int hi;
+
+        RowBands(int[][] a, int[][] b, int[][] c, MultiplyStrategy strategy, int lo, int hi) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.strategy = strategy;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = hi - lo;
+            long perRow = (long) b.length * (b.length == 0 ? 0 : b[0].length);
+
+            if (rows <= 1 || rows * perRow <= SEQUENTIAL_CUTOFF) {
+                MatrixKernels.multiplyRows(strategy, a, b, c, lo, hi);
+                return;
+            }
+
+            int mid = lo + rows / 2;
+            invokeAll(new RowBands(a, b, c, strategy, lo, mid), new RowBands(a, b, c, strategy, mid, hi));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package pdc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// reassembles length-prefixed Message frames from whatever a non-blocking read happened to return;
+// keeps partial frames between calls and grows its buffer only for frames larger than it
+final class FrameDecoder {
+
+    static final int INITIAL_CAPACITY = 64 * 1024;
+    static final int MAX_FRAME = 512 * 1024 * 1024;
+
+    private ByteBuffer buf;
+
+    FrameDecoder() {
+        this(INITIAL_CAPACITY);
+    }
+
+    FrameDecoder(int capacity) {
+        this.buf = ByteBuffer.allocate(capacity);
+    }
+
+    // buffer to read into; always has room for at least one more byte
+    ByteBuffer readBuffer() {
+        if (!buf.hasRemaining())
+            grow(buf.capacity() * 2L);
+        return buf;
+    }
+
+    // next complete frame read so far, or null if more bytes are needed
+    Message next() throws IOException {
+        buf.flip();
+        try {
+            if (buf.remaining() < 4)
+                return null;
+
+            int frameLen = RPC.checkFrameLength(buf.getInt(buf.position()));
+
+            if (buf.remaining() < 4 + frameLen) {
+                if (buf.capacity() < 4 + frameLen) {
+                    buf.compact();
+                    grow(4L + frameLen);
+                    buf.flip();
+                }
+                return null;
+            }
+
+            // header parsed in place; the payload is the only thing copied out of the reused buffer
+            ByteBuffer frame = buf.duplicate();
+            frame.position(buf.position() + 4).limit(buf.position() + 4 + frameLen);
+            buf.position(frame.limit());
+
+            Message m = Message.decodeHeader(frame);
+            if (m == null || m.wirePayloadLength != frame.remaining())
+                throw new IOException("Failed to decode message");
+            byte[] payload = new byte[m.wirePayloadLength];
+            frame.get(payload);
+            m.setPayload(payload);
+            RPC.countReceived(m.messageType, 4 + frameLen);
+            return m;
+        } finally {
+            buf.compact();
+        }
+    }
+
+    private void grow(long atLeast) {
+        if (atLeast > 4L + MAX_FRAME)
+            atLeast = 4L + MAX_FRAME;
+        ByteBuffer bigger = ByteBuffer.allocate((int) Math.max(atLeast, buf.capacity()));
+        buf.flip();
+        bigger.put(buf);
+        buf = bigger;
+    }
+}
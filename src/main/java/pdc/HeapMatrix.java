@@ -0,0 +1,91 @@
+package pdc;
+
+import java.nio.IntBuffer;
+
+public final class HeapMatrix extends Matrix {
+
+    private final int[] data;
+    private final int offset;
+    private final int stride;
+
+    HeapMatrix(int rows, int cols) {
+        this(new int[Math.multiplyExact(rows, cols)], 0, cols, rows, cols);
+    }
+
+    HeapMatrix(int[] data, int offset, int stride, int rows, int cols) {
+        super(rows, cols);
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    // wraps an existing row-major array without copying
+    public static HeapMatrix wrap(int[] data, int rows, int cols) {
+        if (data.length != rows * cols)
+            throw new IllegalArgumentException("Array size does not match dimensions");
+        return new HeapMatrix(data, 0, cols, rows, cols);
+    }
+
+    public int[] array() {
+        return data;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int stride() {
+        return stride;
+    }
+
+    @Override
+    public int get(int i, int j) {
+        return data[offset + i * stride + j];
+    }
+
+    @Override
+    public void set(int i, int j, int value) {
+        data[offset + i * stride + j] = value;
+    }
+
+    @Override
+    public Matrix view(int row, int col, int rows, int cols) {
+        checkView(row, col, rows, cols);
+        return new HeapMatrix(data, offset + row * stride + col, stride, rows, cols);
+    }
+
+    @Override
+    public void getRow(int i, int j, int[] dst, int dstOff, int len) {
+        System.arraycopy(data, offset + i * stride + j, dst, dstOff, len);
+    }
+
+    @Override
+    public void setRow(int i, int j, int[] src, int srcOff, int len) {
+        System.arraycopy(src, srcOff, data, offset + i * stride + j, len);
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return stride == cols || rows <= 1;
+    }
+
+    @Override
+    public void writeTo(IntBuffer dst) {
+        if (isContiguous()) {
+            dst.put(data, offset, rows * cols);
+            return;
+        }
+        for (int i = 0; i < rows; i++)
+            dst.put(data, offset + i * stride, cols);
+    }
+
+    @Override
+    public void readFrom(IntBuffer src) {
+        if (isContiguous()) {
+            src.get(data, offset, rows * cols);
+            return;
+        }
+        for (int i = 0; i < rows; i++)
+            src.get(data, offset + i * stride, cols);
+    }
+}
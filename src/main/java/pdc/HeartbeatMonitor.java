@@ -0,0 +1,251 @@
+package pdc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// failure detector over a hashed timing wheel. Each peer has one entry parked in the bucket of
+// its next check; a tick only looks at the bucket it lands on, so its cost is the number of
+// checks due rather than the number of peers. Heartbeats just stamp the entry: the wheel notices
+// at the next check and re-parks it (lazy re-arm), so a busy peer costs no wheel work per frame.
+//
+// Suspicion is phi-accrual: phi = -log10(P(no heartbeat for this long)) under a normal fit of
+// recent inter-arrival times, shifted by one ping interval (the longest gap a healthy but idle
+// peer produces). A peer is written off when phi passes the threshold or, regardless of phi,
+// after the hard timeout
+final class HeartbeatMonitor {
+
+    interface Listener {
+        // nothing heard for an interval: time to ping
+        void onQuiet(String id);
+
+        // presumed dead; the entry is already gone
+        void onSuspect(String id, double phi);
+    }
+
+    static final int WHEEL_SIZE = 512;
+    static final int WINDOW = 64;
+    static final double DEFAULT_PHI_THRESHOLD = 8.0;
+
+    private final Listener listener;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // registrations from other threads, parked on the wheel by the next advance()
+    private final ConcurrentLinkedQueue<Entry> arrivals = new ConcurrentLinkedQueue<>();
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private final List<Entry>[] wheel = new List[WHEEL_SIZE];
+    private int cursor;
+    private long nextTickAt;
+
+    private volatile long intervalMs;
+    private volatile long timeoutMs;
+    private volatile double phiThreshold;
+    private volatile long tickMs;
+
+    HeartbeatMonitor(long intervalMs, long timeoutMs, double phiThreshold, Listener listener) {
+        this.listener = listener;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        configure(intervalMs, timeoutMs, phiThreshold);
+    }
+
+    synchronized void configure(long intervalMs, long timeoutMs, double phiThreshold) {
+        if (intervalMs <= 0 || timeoutMs <= intervalMs || phiThreshold <= 0)
+            throw new IllegalArgumentException("Need 0 < interval < timeout and a positive phi threshold");
+        this.intervalMs = intervalMs;
+        this.timeoutMs = timeoutMs;
+        this.phiThreshold = phiThreshold;
+        this.tickMs = Math.max(1, intervalMs / 4);
+        this.nextTickAt = System.currentTimeMillis() + tickMs;
+    }
+
+    long tickMs() {
+        return tickMs;
+    }
+
+    long intervalMs() {
+        return intervalMs;
+    }
+
+    void register(String id) {
+        Entry e = new Entry(id, System.currentTimeMillis(), intervalMs);
+        Entry old = entries.put(id, e);
+        if (old != null)
+            old.removed = true;
+        arrivals.add(e);
+    }
+
+    // cheap and lock-free for the caller's purposes; returns the ms since the peer was last heard
+    // from, or -1 for an unknown id, which is otherwise ignored
+    long heartbeat(String id) {
+        Entry e = entries.get(id);
+        return (e == null) ? -1 : e.arrived(System.currentTimeMillis());
+    }
+
+    void remove(String id) {
+        Entry e = entries.remove(id);
+        if (e != null)
+            e.removed = true;
+    }
+
+    boolean isTracked(String id) {
+        return entries.containsKey(id);
+    }
+
+    double phi(String id) {
+        Entry e = entries.get(id);
+        return (e == null) ? Double.POSITIVE_INFINITY : e.phi(System.currentTimeMillis(), intervalMs);
+    }
+
+    // longest time any tracked peer has gone unheard, in ms; 0 with no peers
+    long maxSilenceMs(long now) {
+        long max = 0;
+        for (Entry e : entries.values()) {
+            max = Math.max(max, now - e.lastSeen);
+        }
+        return max;
+    }
+
+    // runs every tick that has come due by now; listeners are called after the wheel is updated
+    void advance(long now) {
+        List<String> quiet = new ArrayList<>();
+        List<Entry> suspects = new ArrayList<>();
+        List<Double> phis = new ArrayList<>();
+
+        synchronized (this) {
+            Entry arrival;
+            while ((arrival = arrivals.poll()) != null) {
+                if (!arrival.removed)
+                    park(arrival, intervalMs);
+            }
+
+            long tick = tickMs;
+            // a long stall (or a first call) is caught up in one pass over the wheel at most
+            if (now - nextTickAt > tick * WHEEL_SIZE)
+                nextTickAt = now - tick * WHEEL_SIZE;
+
+            while (nextTickAt <= now) {
+                cursor = (cursor + 1) % WHEEL_SIZE;
+                nextTickAt += tick;
+
+                List<Entry> bucket = wheel[cursor];
+                if (bucket.isEmpty())
+                    continue;
+                List<Entry> due = new ArrayList<>(bucket);
+                bucket.clear();
+
+                for (Entry e : due) {
+                    if (e.removed)
+                        continue;
+                    if (e.rounds > 0) {
+                        e.rounds--;
+                        bucket.add(e);
+                        continue;
+                    }
+                    check(e, now, quiet, suspects, phis);
+                }
+            }
+        }
+
+        for (String id : quiet) {
+            listener.onQuiet(id);
+        }
+        for (int i = 0; i < suspects.size(); i++) {
+            listener.onSuspect(suspects.get(i).id, phis.get(i));
+        }
+    }
+
+    private void check(Entry e, long now, List<String> quiet, List<Entry> suspects, List<Double> phis) {
+        long interval = intervalMs;
+        long since = now - e.lastSeen;
+        double phi = e.phi(now, interval);
+
+        if (since > timeoutMs || phi > phiThreshold) {
+            if (entries.remove(e.id, e)) {
+                e.removed = true;
+                suspects.add(e);
+                phis.add(phi);
+            }
+            return;
+        }
+
+        if (since >= interval) {
+            quiet.add(e.id);
+            park(e, interval / 2);
+        } else {
+            park(e, interval - since);
+        }
+    }
+
+    private void park(Entry e, long delayMs) {
+        long ticks = Math.max(1, (delayMs + tickMs - 1) / tickMs);
+        e.rounds = (int) ((ticks - 1) / WHEEL_SIZE);
+        wheel[(int) ((cursor + ticks) % WHEEL_SIZE)].add(e);
+    }
+
+    private static final class Entry {
+        final String id;
+        volatile long lastSeen;
+        volatile boolean removed;
+        // wheel bookkeeping, touched under the monitor lock only
+        int rounds;
+
+        // ring of recent inter-arrival times with running sums for mean and variance
+        private final long[] gaps = new long[WINDOW];
+        private int count;
+        private int next;
+        private double sum;
+        private double sumSq;
+
+        Entry(String id, long now, long intervalMs) {
+            this.id = id;
+            this.lastSeen = now;
+            // seeded so a fresh peer is judged against the ping cadence
+            add(intervalMs);
+        }
+
+        synchronized long arrived(long now) {
+            long gap = now - lastSeen;
+            lastSeen = now;
+            if (gap > 0)
+                add(gap);
+            return Math.max(0, gap);
+        }
+
+        private void add(long gap) {
+            if (count == WINDOW) {
+                long old = gaps[next];
+                sum -= old;
+                sumSq -= (double) old * old;
+            } else {
+                count++;
+            }
+            gaps[next] = gap;
+            next = (next + 1) % WINDOW;
+            sum += gap;
+            sumSq += (double) gap * gap;
+        }
+
+        synchronized double phi(long now, long intervalMs) {
+            double mean = sum / count;
+            double variance = Math.max(0, sumSq / count - mean * mean);
+            // an idle peer is only pinged after a full interval of silence, so that much quiet is
+            // normal whatever the recent traffic looked like
+            double shifted = mean + intervalMs;
+            double stdDev = Math.max(Math.sqrt(variance), intervalMs / 4.0);
+            return phi(now - lastSeen, shifted, stdDev);
+        }
+
+        // logistic approximation of the normal tail, as in the phi-accrual paper's implementations
+        static double phi(long elapsed, double mean, double stdDev) {
+            double y = (elapsed - mean) / stdDev;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            double p = (elapsed > mean) ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+            if (p <= 0)
+                return Double.POSITIVE_INFINITY;
+            return -Math.log10(p);
+        }
+    }
+}
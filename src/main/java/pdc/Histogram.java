@@ -0,0 +1,100 @@
+package pdc;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// lock-free log-linear histogram of non-negative longs, after HdrHistogram: values below
+// SUB_BUCKETS are counted exactly and every power of two above is cut into SUB_BUCKETS equal
+// buckets, so a recorded value is known to within 1/SUB_BUCKETS of itself whatever its size.
+// record() is a few adds on uncontended cells; the unit is whatever the caller records in
+public final class Histogram {
+
+    static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // exact values, then one row of sub-buckets for each exponent from SUB_BITS to 62
+    static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+        // the max only moves on new highs, so this CAS is rare once warm
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), max.get());
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // largest value that lands in bucket i
+    static long upperBound(int i) {
+        if (i < SUB_BUCKETS)
+            return i;
+        int exp = i / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        long lower = (long) (SUB_BUCKETS + i % SUB_BUCKETS) << (exp - SUB_BITS);
+        return lower + width - 1;
+    }
+
+    // counts as of one moment; buckets recorded into while it was taken may be off by those records
+    public static final class Snapshot {
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean() {
+            return (count == 0) ? 0 : (double) sum / count;
+        }
+
+        // value at or below which a fraction p (0..1) of the records fall, to bucket precision
+        public long percentile(double p) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", count, mean(),
+                    percentile(0.50), percentile(0.90), percentile(0.99), max);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package pdc;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+// row-major long matrix on the heap, for products summed with Accumulation.LONG; views share the
+// array like HeapMatrix's do
+public final class LongMatrix {
+
+    private final long[] data;
+    private final int offset;
+    private final int stride;
+    private final int rows;
+    private final int cols;
+
+    private LongMatrix(long[] data, int offset, int stride, int rows, int cols) {
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public static LongMatrix heap(int rows, int cols) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Negative dimension");
+        return new LongMatrix(new long[Math.multiplyExact(rows, cols)], 0, cols, rows, cols);
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public long get(int i, int j) {
+        return data[offset + i * stride + j];
+    }
+
+    public void set(int i, int j, long value) {
+        data[offset + i * stride + j] = value;
+    }
+
+    public LongMatrix view(int row, int col, int rows, int cols) {
+        if (row < 0 || col < 0 || rows < 0 || cols < 0 || row + rows > this.rows || col + cols > this.cols)
+            throw new IndexOutOfBoundsException("View out of range");
+        return new LongMatrix(data, offset + row * stride + col, stride, rows, cols);
+    }
+
+    public LongMatrix view(Block block) {
+        return view(block.rowStart, block.colStart, block.rows(), block.cols());
+    }
+
+    public void getRow(int i, int j, long[] dst, int dstOff, int len) {
+        System.arraycopy(data, offset + i * stride + j, dst, dstOff, len);
+    }
+
+    public void setRow(int i, int j, long[] src, int srcOff, int len) {
+        System.arraycopy(src, srcOff, data, offset + i * stride + j, len);
+    }
+
+    public void copyFrom(LongMatrix src) {
+        if (src.rows != rows || src.cols != cols)
+            throw new IllegalArgumentException("Dimension mismatch");
+        for (int i = 0; i < rows; i++)
+            System.arraycopy(src.data, src.offset + i * src.stride, data, offset + i * stride, cols);
+    }
+
+    void writeTo(LongBuffer dst) {
+        for (int i = 0; i < rows; i++)
+            dst.put(data, offset + i * stride, cols);
+    }
+
+    void readFrom(LongBuffer src) {
+        for (int i = 0; i < rows; i++)
+            src.get(data, offset + i * stride, cols);
+    }
+
+    public long[][] toArray() {
+        long[][] out = new long[rows][cols];
+        for (int i = 0; i < rows; i++)
+            getRow(i, 0, out[i], 0, cols);
+        return out;
+    }
+
+    public boolean contentEquals(LongMatrix other) {
+        if (other == null || other.rows != rows || other.cols != cols)
+            return false;
+        for (int i = 0; i < rows; i++) {
+            int x = offset + i * stride;
+            int y = other.offset + i * other.stride;
+            if (!Arrays.equals(data, x, x + cols, other.data, y, y + cols))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "LongMatrix[" + rows + "x" + cols + "]";
+    }
+}
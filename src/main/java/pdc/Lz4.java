@@ -0,0 +1,175 @@
+package pdc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// LZ4 block format (no frame): sequences of token, literals, 2-byte little-endian offset and
+// match length, with the usual end-of-block rules (last 5 bytes are literals, no match starts
+// in the last 12). Greedy single-probe matcher; good enough for the long zero and repeat runs
+// matrix payloads have, and the decoder checks every length against both buffers
+final class Lz4 {
+
+    static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int HASH_LOG = 16;
+    private static final int MAX_DISTANCE = 65535;
+    // after this many misses in a row the matcher starts skipping ahead
+    private static final int SKIP_TRIGGER = 6;
+
+    private Lz4() {
+    }
+
+    static int maxCompressedLength(int n) {
+        return n + n / 255 + 16;
+    }
+
+    // dst needs maxCompressedLength(srcLen) bytes from dstOff; returns the compressed length
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int end = srcOff + srcLen;
+        int matchLimit = end - LAST_LITERALS;
+        int mfLimit = end - MF_LIMIT;
+        int anchor = srcOff;
+        int ip = srcOff;
+        int op = dstOff;
+
+        if (srcLen > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+
+            while (ip < mfLimit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = ip;
+
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int len = MIN_MATCH;
+                while (ip + len < matchLimit && src[ip + len] == src[ref + len]) {
+                    len++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, len, dst, op);
+                ip += len;
+                anchor = ip;
+            }
+        }
+
+        int lit = end - anchor;
+        dst[op++] = (byte) (Math.min(lit, 15) << 4);
+        if (lit >= 15)
+            op = writeLength(lit - 15, dst, op);
+        System.arraycopy(src, anchor, dst, op, lit);
+        return op + lit - dstOff;
+    }
+
+    // fills exactly dstLen bytes of dst or throws
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        int ip = srcOff;
+        int end = srcOff + srcLen;
+        int op = dstOff;
+        int oend = dstOff + dstLen;
+
+        while (true) {
+            if (ip >= end)
+                throw new IOException("Truncated LZ4 block");
+            int token = src[ip++] & 0xFF;
+
+            int lit = token >>> 4;
+            if (lit == 15) {
+                int b;
+                do {
+                    if (ip >= end)
+                        throw new IOException("Truncated LZ4 block");
+                    b = src[ip++] & 0xFF;
+                    lit += b;
+                } while (b == 255 && lit >= 0);
+            }
+            if (lit < 0 || lit > end - ip || lit > oend - op)
+                throw new IOException("LZ4 literal run out of bounds");
+            System.arraycopy(src, ip, dst, op, lit);
+            ip += lit;
+            op += lit;
+
+            if (ip == end)
+                break;
+
+            if (end - ip < 2)
+                throw new IOException("Truncated LZ4 block");
+            int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (offset == 0 || offset > op - dstOff)
+                throw new IOException("LZ4 match offset out of bounds");
+
+            int len = token & 15;
+            if (len == 15) {
+                int b;
+                do {
+                    if (ip >= end)
+                        throw new IOException("Truncated LZ4 block");
+                    b = src[ip++] & 0xFF;
+                    len += b;
+                } while (b == 255 && len >= 0);
+            }
+            len += MIN_MATCH;
+            if (len < MIN_MATCH || len > oend - op)
+                throw new IOException("LZ4 match out of bounds");
+
+            int ref = op - offset;
+            if (offset >= len) {
+                System.arraycopy(dst, ref, dst, op, len);
+            } else {
+                // overlapping copy repeats the last offset bytes
+                for (int i = 0; i < len; i++) {
+                    dst[op + i] = dst[ref + i];
+                }
+            }
+            op += len;
+        }
+
+        if (op != oend)
+            throw new IOException("LZ4 block decoded to " + (op - dstOff) + " bytes, expected " + dstLen);
+    }
+
+    private static int writeSequence(byte[] src, int anchor, int lit, int offset, int len, byte[] dst, int op) {
+        int ml = len - MIN_MATCH;
+        int token = op++;
+        dst[token] = (byte) ((Math.min(lit, 15) << 4) | Math.min(ml, 15));
+        if (lit >= 15)
+            op = writeLength(lit - 15, dst, op);
+        System.arraycopy(src, anchor, dst, op, lit);
+        op += lit;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (ml >= 15)
+            op = writeLength(ml - 15, dst, op);
+        return op;
+    }
+
+    private static int writeLength(int n, byte[] dst, int op) {
+        while (n >= 255) {
+            dst[op++] = (byte) 255;
+            n -= 255;
+        }
+        dst[op++] = (byte) n;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
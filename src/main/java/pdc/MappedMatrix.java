@@ -0,0 +1,186 @@
+package pdc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// file-backed matrix mapped with FileChannel.map, so operands and products can be larger than the
+// heap. The file is a HEADER_BYTES header - magic(4) version(4) rows(4) cols(4), big-endian, then
+// zero padding - followed by the row-major ints in little-endian order, the same packing as an
+// int32 block body. A single mapping tops out at 2 GB, so the rows are mapped in segments of at
+// most SEGMENT_BYTES, cut on row boundaries so that no row straddles two of them
+public final class MappedMatrix extends Matrix {
+
+    static final int MAGIC = 0x43534D58; // "CSMX"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final long SEGMENT_BYTES = 1L << 30;
+
+    private final Path file;
+    private final MappedByteBuffer[] maps;
+    private final IntBuffer[] segments;
+    private final int rowsPerSegment;
+    private final int fileRows;
+    // this matrix is rows [rowOffset, rowOffset + rows) x cols [colOffset, colOffset + cols) of the
+    // file's stride-wide matrix
+    private final int rowOffset;
+    private final int colOffset;
+    private final int stride;
+
+    private MappedMatrix(Path file, MappedByteBuffer[] maps, IntBuffer[] segments, int rowsPerSegment,
+            int fileRows, int rowOffset, int colOffset, int stride, int rows, int cols) {
+        super(rows, cols);
+        this.file = file;
+        this.maps = maps;
+        this.segments = segments;
+        this.rowsPerSegment = rowsPerSegment;
+        this.fileRows = fileRows;
+        this.rowOffset = rowOffset;
+        this.colOffset = colOffset;
+        this.stride = stride;
+    }
+
+    // a new zero-filled file, replacing any that exists
+    public static MappedMatrix create(Path file, int rows, int cols) throws IOException {
+        return create(file, rows, cols, SEGMENT_BYTES);
+    }
+
+    static MappedMatrix create(Path file, int rows, int cols, long segmentBytes) throws IOException {
+        if (rows <= 0 || cols <= 0)
+            throw new IllegalArgumentException("Empty matrix");
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).rewind();
+            while (header.hasRemaining())
+                ch.write(header);
+            // sparse on most file systems: untouched pages read back as zeros
+            ch.write(ByteBuffer.allocate(1), HEADER_BYTES + 4L * rows * cols - 1);
+            return map(file, ch, rows, cols, segmentBytes);
+        }
+    }
+
+    public static MappedMatrix open(Path file) throws IOException {
+        return open(file, SEGMENT_BYTES);
+    }
+
+    static MappedMatrix open(Path file, long segmentBytes) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (header.hasRemaining()) {
+                if (ch.read(header, header.position()) < 0)
+                    throw new IOException("Truncated matrix header: " + file);
+            }
+            header.flip();
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a matrix file: " + file);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported matrix file version " + version + ": " + file);
+            int rows = header.getInt();
+            int cols = header.getInt();
+            if (rows <= 0 || cols <= 0 || ch.size() < HEADER_BYTES + 4L * rows * cols)
+                throw new IOException("Matrix file does not match its header: " + file);
+            return map(file, ch, rows, cols, segmentBytes);
+        }
+    }
+
+    // the mappings outlive the channel; they are released when the buffers are collected
+    private static MappedMatrix map(Path file, FileChannel ch, int rows, int cols, long segmentBytes)
+            throws IOException {
+        long rowBytes = 4L * cols;
+        int rowsPerSegment = (int) Math.max(1, Math.min(rows, segmentBytes / rowBytes));
+        int count = (rows + rowsPerSegment - 1) / rowsPerSegment;
+        MappedByteBuffer[] maps = new MappedByteBuffer[count];
+        IntBuffer[] segments = new IntBuffer[count];
+        for (int s = 0; s < count; s++) {
+            int segRows = Math.min(rowsPerSegment, rows - s * rowsPerSegment);
+            maps[s] = ch.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + (long) s * rowsPerSegment * rowBytes,
+                    segRows * rowBytes);
+            segments[s] = maps[s].duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        return new MappedMatrix(file.toAbsolutePath(), maps, segments, rowsPerSegment, rows, 0, 0, cols, rows, cols);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    // true for the file's whole matrix rather than a view into it
+    public boolean isWholeFile() {
+        return rowOffset == 0 && colOffset == 0 && rows == fileRows && cols == stride;
+    }
+
+    // writes dirty pages back to the file; other mappings of it see every write without this
+    public void force() {
+        for (MappedByteBuffer map : maps) {
+            map.force();
+        }
+    }
+
+    @Override
+    public int get(int i, int j) {
+        int r = rowOffset + i;
+        return segments[r / rowsPerSegment].get((r % rowsPerSegment) * stride + colOffset + j);
+    }
+
+    @Override
+    public void set(int i, int j, int value) {
+        int r = rowOffset + i;
+        segments[r / rowsPerSegment].put((r % rowsPerSegment) * stride + colOffset + j, value);
+    }
+
+    @Override
+    public Matrix view(int row, int col, int rows, int cols) {
+        checkView(row, col, rows, cols);
+        return new MappedMatrix(file, maps, segments, rowsPerSegment, fileRows, rowOffset + row, colOffset + col, stride,
+                rows, cols);
+    }
+
+    @Override
+    public void getRow(int i, int j, int[] dst, int dstOff, int len) {
+        rowBuffer(i, j).get(dst, dstOff, len);
+    }
+
+    @Override
+    public void setRow(int i, int j, int[] src, int srcOff, int len) {
+        rowBuffer(i, j).put(src, srcOff, len);
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(IntBuffer dst) {
+        for (int i = 0; i < rows; i++) {
+            IntBuffer row = rowBuffer(i, 0);
+            row.limit(row.position() + cols);
+            dst.put(row);
+        }
+    }
+
+    @Override
+    public void readFrom(IntBuffer src) {
+        for (int i = 0; i < rows; i++) {
+            IntBuffer part = src.duplicate();
+            part.limit(part.position() + cols);
+            rowBuffer(i, 0).put(part);
+            src.position(src.position() + cols);
+        }
+    }
+
+    // the segment holding row i, positioned at column j
+    private IntBuffer rowBuffer(int i, int j) {
+        int r = rowOffset + i;
+        IntBuffer seg = segments[r / rowsPerSegment].duplicate();
+        seg.position((r % rowsPerSegment) * stride + colOffset + j);
+        return seg;
+    }
+}
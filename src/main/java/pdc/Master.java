@@ -1,19 +1,169 @@
 package pdc;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Master {
 
-    private final ExecutorService systemThreads = Executors.newCachedThreadPool();
+    // accept loop, connection handlers and streaming gathers; with virtual threads each of these
+    // gets its own virtual thread, so tens of thousands of blocking connections cost no OS threads
+    private final ExecutorService systemThreads;
+    private final boolean virtualThreads;
 
-    private final ConcurrentHashMap<String, Long> workerHeartbeat = new ConcurrentHashMap<>();
-    private final long timeoutMs = 5000;
+    // this master's instruments; RPC traffic is in Metrics.shared()
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter tasksDispatched = metrics.counter("master.tasks.dispatched");
+    private final Metrics.Counter tasksRequeued = metrics.counter("master.tasks.requeued");
+    private final Metrics.Counter tasksFailed = metrics.counter("master.tasks.failed");
+    private final Metrics.Counter cacheMisses = metrics.counter("master.tasks.cache_misses");
+    private final Metrics.Counter workersJoined = metrics.counter("master.workers.joined");
+    private final Metrics.Counter workersLost = metrics.counter("master.workers.lost");
+    // dispatch to result as seen here, and the workers' own compute time for the same blocks
+    private final Histogram taskLatency = metrics.histogram("master.task.latency_us");
+    private final Histogram computeTime = metrics.histogram("master.task.compute_us");
+    // time between frames from a worker, heartbeats or otherwise
+    private final Histogram heartbeatGap = metrics.histogram("master.heartbeat.gap_ms");
+
+    // a worker is pinged once it has been quiet for an interval and written off when the monitor
+    // suspects it; the monitor's wheel is ticked on its own scheduler thread
+    private final HeartbeatMonitor monitor = new HeartbeatMonitor(1000, 5000, HeartbeatMonitor.DEFAULT_PHI_THRESHOLD,
+            new HeartbeatMonitor.Listener() {
+                @Override
+                public void onQuiet(String id) {
+                    WorkerConnection worker = workers.get(id);
+                    if (worker != null)
+                        ping(worker);
+                }
+
+                @Override
+                public void onSuspect(String id, double phi) {
+                    retryOrReassign(id);
+                }
+            });
+    private ScheduledExecutorService heartbeatTimer;
+    private ScheduledFuture<?> heartbeatTick;
+    // cap on the blocks a single worker may hold, whatever slot count it reports
+    private static final int MAX_WINDOW = 64;
+
+    // connected workers and the block tasks currently handed out to them
+    private final ConcurrentHashMap<String, WorkerConnection> workers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, TaskRef> tasks = new ConcurrentHashMap<>();
+    private final AtomicInteger workerSeq = new AtomicInteger();
+    private final AtomicLong taskSeq = new AtomicLong();
+
+    // BlockCodec features offered to workers; each connection uses what both sides support
+    private volatile int codecFeatures = BlockCodec.SUPPORTED_FEATURES;
+
+    // small task frames to a worker are held this long, or until this many bytes wait, and sent as
+    // one batch; the event loops of listenNonBlocking() already merge whatever is queued
+    private volatile long coalesceDelayNanos = CoalescingWriter.DEFAULT_MAX_DELAY_NANOS;
+    private volatile int coalesceBytes = CoalescingWriter.DEFAULT_MAX_BYTES;
+
+    private volatile ServerSocket server;
+    private volatile NioServer nioServer;
+
+    private final WorkerConnection.Listener workerEvents = new WorkerConnection.Listener() {
+        @Override
+        public void onMessage(WorkerConnection worker, Message msg) {
+            onReply(worker, msg);
+        }
+
+        @Override
+        public void onClosed(WorkerConnection worker) {
+            workerLost(worker);
+        }
+    };
+
+    // a block is speculated once it has run SPECULATE_FACTOR times longer than the job's
+    // SPECULATE_PERCENTILE block, and never before SPECULATE_MIN_MS
+    static final double SPECULATE_PERCENTILE = 0.75;
+    static final double SPECULATE_FACTOR = 2.0;
+    static final long SPECULATE_MIN_MS = 50;
+
+    static final int MAX_OPERAND_MISSES = 2;
+    // operands and result of one block task; bigger jobs, e.g. over file-backed matrices, are cut finer
+    static final long MAX_TASK_BYTES = 64L * 1024 * 1024;
+
+    private volatile BlockScheduler scheduler = Schedulers.roundRobin();
+
+    // Strassen-Winograd: levels strassenMultiply() splits on the master before dispatching, and the
+    // size at or below which recursion stops there and in the local fallback
+    private volatile int strassenLevels = 1;
+    private volatile int strassenCrossover = Strassen.DEFAULT_CROSSOVER;
+
+    // pull mode: workers ask for blocks with TYPE_WORK_REQUEST instead of the scheduler pushing them
+    private volatile boolean pullMode;
+    private final List<BlockJob> pullJobs = new CopyOnWriteArrayList<>();
+    private final Metrics.Counter stolenBlocks = metrics.counter("master.blocks.stolen");
+
+    private final Metrics.Counter speculativeLaunches = metrics.counter("master.speculative.launches");
+    private final Metrics.Counter speculativeWins = metrics.counter("master.speculative.wins");
+
+    // every job being gathered, for the queue depth gauge
+    private final List<BlockJob> jobs = new CopyOnWriteArrayList<>();
+
+    private static final class TaskRef {
+        final BlockJob job;
+        final Block block;
+        final WorkerConnection worker;
+        final long startNanos = System.nanoTime();
+        // speculative copies are born with a twin; the original learns its twin when one is launched
+        final boolean speculative;
+        volatile long twin;
+        // cache misses so far; after MAX_OPERAND_MISSES the task carries its B panel itself
+        volatile int misses;
+        // last sent as a FILE_REF task, so a result without a body is expected
+        volatile boolean viaFiles;
+
+        TaskRef(BlockJob job, Block block, WorkerConnection worker, long twin) {
+            this.job = job;
+            this.block = block;
+            this.worker = worker;
+            this.twin = twin;
+            this.speculative = twin != 0;
+        }
+    }
+
+    // virtual threads when -Dpdc.virtualThreads=true and the runtime has them
+    public Master() {
+        this(Threads.virtualByDefault());
+    }
+
+    // virtualThreads needs a Java 21 runtime
+    public Master(boolean virtualThreads) {
+        Threads.checkVirtual(virtualThreads);
+        this.virtualThreads = virtualThreads;
+        this.systemThreads = virtualThreads ? Threads.virtualPerTask("master-io-") : Executors.newCachedThreadPool();
+        metrics.gauge("master.workers", workers::size);
+        metrics.gauge("master.tasks.in_flight", tasks::size);
+        metrics.gauge("master.queue.depth", this::queueDepth);
+        metrics.gauge("master.heartbeat.max_silence_ms", () -> monitor.maxSilenceMs(System.currentTimeMillis()));
+    }
 
     public Object coordinate(String operation, int[][] data, int workerCount) {
         if (operation == null || data == null || workerCount <= 0) {
@@ -21,115 +171,920 @@ public class Master {
         }
 
         if (operation.equals("BLOCK_MULTIPLY")) {
-            if (false) {
-                int[][] b = MatrixGenerator.generateIdentityMatrix(data.length);
-                parallelMatrixMultiply(data, b, workerCount);
-            }
+            if (data.length == 0 || data[0].length == 0)
+                return null;
+            Matrix b = MatrixGenerator.identityMatrix(data[0].length);
+            return blockMultiply(Matrix.of(data), b, workerCount).toArray();
         }
 
         return null;
     }
 
+    public int[][] blockMultiply(int[][] a, int[][] b, int workerCount) {
+        checkDimensions(a, b);
+        return blockMultiply(Matrix.of(a), Matrix.of(b), workerCount).toArray();
+    }
+
+    // scatter output blocks of a x b over up to workerCount connected workers and gather the result;
+    // runs on local threads when no worker has joined
+    public Matrix blockMultiply(Matrix a, Matrix b, int workerCount) {
+        checkProduct(a, b, null);
+
+        List<WorkerConnection> chosen = pickWorkers(workerCount);
+        if (chosen.isEmpty())
+            return parallelMatrixMultiply(a, b, workerCount);
+        return gather(new BlockJob(a, b, Matrix.heap(a.rows(), b.cols()), partition(a, b, chosen), null), chosen);
+    }
+
+    // streaming gather: each result is decoded straight into its place in c, which the caller
+    // preallocates (heap, direct or file-backed), and listener, if not null, hears about each range
+    // of rows as soon as all of its columns are in
+    public Matrix blockMultiply(Matrix a, Matrix b, Matrix c, int workerCount, RowRangeListener listener) {
+        checkProduct(a, b, c);
+
+        List<WorkerConnection> chosen = pickWorkers(workerCount);
+        if (chosen.isEmpty()) {
+            // block by block on local threads: memory stays bounded and the listener still hears rows
+            List<Block> blocks = BlockPartitioner.forBudget(a.rows(), b.cols(), a.cols(), workerCount, MAX_TASK_BYTES);
+            BlockJob job = new BlockJob(a, b, c, blocks, listener);
+            ForkJoinMultiply.pool(workerCount).submit(() -> blocks.parallelStream().forEach(job::computeLocally)).join();
+            if (job.failure() != null)
+                throw new IllegalStateException(job.failure());
+            return c;
+        }
+        return gather(new BlockJob(a, b, c, partition(a, b, chosen), listener), chosen);
+    }
+
+    // a x b summed in 64 bits, exact where blockMultiply() would wrap; only workers that agreed to
+    // FEATURE_ACCUMULATION are used, and it runs on local threads when there are none
+    public LongMatrix blockMultiplyLong(Matrix a, Matrix b, int workerCount) {
+        checkProduct(a, b, null);
+
+        List<WorkerConnection> chosen = pickWorkers(workerCount, Accumulation.LONG);
+        if (chosen.isEmpty())
+            return MatrixGenerator.parallelMultiplyLong(a, b, workerCount);
+        BlockJob job = new BlockJob(a, b, Accumulation.LONG, partition(a, b, chosen));
+        gather(job, chosen);
+        return job.wide;
+    }
+
+    // a x b with every entry reduced into [0, modulus)
+    public Matrix blockMultiplyMod(Matrix a, Matrix b, int modulus, int workerCount) {
+        checkProduct(a, b, null);
+        Accumulation mod = Accumulation.mod(modulus);
+
+        List<WorkerConnection> chosen = pickWorkers(workerCount, mod);
+        if (chosen.isEmpty())
+            return MatrixGenerator.parallelMultiplyMod(a, b, workerCount, modulus);
+        return gather(new BlockJob(a, b, mod, partition(a, b, chosen)), chosen);
+    }
+
+    // the same on a master thread; the stream hands out row ranges of c as they complete
+    public RowStream multiplyStreaming(Matrix a, Matrix b, Matrix c, int workerCount) {
+        checkProduct(a, b, c);
+
+        RowStream stream = new RowStream(c);
+        systemThreads.submit(() -> {
+            String failure = null;
+            try {
+                blockMultiply(a, b, c, workerCount, stream);
+            } catch (RuntimeException e) {
+                failure = String.valueOf(e.getMessage());
+            }
+            stream.finish(failure);
+        });
+        return stream;
+    }
+
+    private static List<Block> partition(Matrix a, Matrix b, List<WorkerConnection> chosen) {
+        return BlockPartitioner.forBudget(a.rows(), b.cols(), a.cols(), chosen.size(), MAX_TASK_BYTES);
+    }
+
+    private Matrix gather(BlockJob job, List<WorkerConnection> chosen) {
+        jobs.add(job);
+        try {
+            if (pullMode)
+                pull(job, chosen);
+            else
+                scatter(job, chosen);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for block results");
+        } finally {
+            jobs.remove(job);
+        }
+
+        if (job.failure() != null)
+            throw new IllegalStateException(job.failure());
+        return job.c;
+    }
+
+    public int workerCount() {
+        return workers.size();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // counters, gauges and latency histograms of this master; snapshot() or dumpEvery() them
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    private long queueDepth() {
+        long n = 0;
+        for (BlockJob job : jobs) {
+            n += job.queued();
+        }
+        return n;
+    }
+
+    // restricts the payload packings offered to workers that join from now on
+    public void setCodecFeatures(int features) {
+        this.codecFeatures = features & BlockCodec.SUPPORTED_FEATURES;
+    }
+
+    // for workers that join from now on; maxDelayMicros <= 0 sends every frame as it is written
+    public void setCoalescing(long maxDelayMicros, int maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive");
+        this.coalesceDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.coalesceBytes = maxBytes;
+    }
+
+    public int getPort() {
+        NioServer nio = nioServer;
+        if (nio != null)
+            return nio.getPort();
+        ServerSocket s = server;
+        return (s == null) ? -1 : s.getLocalPort();
+    }
+
     public void listen(int port) throws IOException {
-        ServerSocket server = new ServerSocket(port);
+        // channel-backed, so connections take RPC's pooled channel paths
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        ServerSocket server = channel.socket();
+        server.bind(new InetSocketAddress(port), RPC.ACCEPT_BACKLOG);
+        this.server = server;
+        startHeartbeats();
 
         systemThreads.submit(() -> {
-            while (true) {
+            while (!server.isClosed()) {
                 try {
                     Socket client = server.accept();
 
-                    systemThreads.submit(() -> {
-                        try {
-                            Message req = RPC.receive(client);
-
-                            if (req.messageType == Message.TYPE_HEARTBEAT) {
-                                String id = (req.studentId == null) ? "UNKNOWN" : req.studentId;
-                                workerHeartbeat.put(id, System.currentTimeMillis());
-                            }
+                    systemThreads.submit(() -> serveConnection(client));
 
-                            Message res = new Message();
-                            res.messageType = Message.TYPE_RESULT;
-                            res.studentId = req.studentId;
-                            res.sender = "master";
-                            res.payload = req.payload;
+                } catch (IOException e) {
+                    if (!server.isClosed())
+                        metrics.error("master.accept.failed", e);
+                }
+            }
+        });
+    }
 
-                            RPC.send(client, res);
-                        } catch (Exception ignored) {
-                        }
-                    });
+    // selector-based alternative to listen(): eventLoops threads serve every connection, so
+    // hundreds of workers cost a few threads instead of one each (eventLoops <= 0 picks a default)
+    public void listenNonBlocking(int port, int eventLoops) throws IOException {
+        NioServer nio = new NioServer(eventLoops, new NioServer.Handler() {
+            @Override
+            public void onMessage(NioConnection connection, Message msg) {
+                onNioMessage(connection, msg);
+            }
 
-                } catch (IOException ignored) {
-                }
+            @Override
+            public void onClose(NioConnection connection, Throwable cause) {
+                Object ctx = connection.attachment();
+                if (ctx instanceof RpcClient)
+                    ((RpcClient) ctx).closed(cause);
             }
         });
+        nio.bind(port);
+        this.nioServer = nio;
+        startHeartbeats();
+    }
+
+    public void shutdown() {
+        NioServer nio = nioServer;
+        if (nio != null)
+            nio.close();
+
+        ServerSocket s = server;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+        for (WorkerConnection w : workers.values()) {
+            workerLost(w);
+        }
+        synchronized (this) {
+            if (heartbeatTimer != null)
+                heartbeatTimer.shutdownNow();
+        }
+        systemThreads.shutdownNow();
     }
 
+    // runs the heartbeat ticks that have come due; the scheduler calls this every tick
     public void reconcileState() {
-        checkHealth();
-        retryOrReassign();
+        monitor.advance(System.currentTimeMillis());
     }
 
-    private void checkHealth() {
-        long now = System.currentTimeMillis();
-        for (String id : workerHeartbeat.keySet()) {
-            Long last = workerHeartbeat.get(id);
-            if (last == null)
-                continue;
+    // a worker that stopped answering may still hold its socket open: drop it so its blocks move on
+    private void retryOrReassign(String id) {
+        WorkerConnection worker = workers.get(id);
+        if (worker != null)
+            workerLost(worker);
+    }
+
+    // pulls back every block the worker still held and closes its connection
+    private Set<Long> recoverWork(WorkerConnection worker) {
+        return worker.close();
+    }
+
+    // recovered blocks go to the front of their job's ready queue, where the job's scatter loop
+    // hands them to the next healthy worker
+    private void reassignTasks(Set<Long> taskIds) {
+        for (Long taskId : taskIds) {
+            TaskRef ref = tasks.remove(taskId);
+            if (ref != null)
+                requeue(ref);
+        }
+    }
 
-            if (now - last > timeoutMs) {
-                workerHeartbeat.remove(id);
+    public void setHeartbeat(long intervalMs, long timeoutMs) {
+        setHeartbeat(intervalMs, timeoutMs, HeartbeatMonitor.DEFAULT_PHI_THRESHOLD);
+    }
+
+    // quiet workers are pinged every intervalMs; one is dropped once its phi passes phiThreshold
+    // or nothing has been heard from it for timeoutMs
+    public synchronized void setHeartbeat(long intervalMs, long timeoutMs, double phiThreshold) {
+        monitor.configure(intervalMs, timeoutMs, phiThreshold);
+        if (heartbeatTick != null) {
+            heartbeatTick.cancel(false);
+            scheduleTicks();
+        }
+    }
+
+    public double suspicion(String workerId) {
+        return monitor.phi(workerId);
+    }
+
+    private synchronized void startHeartbeats() {
+        if (heartbeatTimer != null)
+            return;
+        heartbeatTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduleTicks();
+    }
+
+    private void scheduleTicks() {
+        long tick = monitor.tickMs();
+        heartbeatTick = heartbeatTimer.scheduleAtFixedRate(this::reconcileState, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    private void ping(WorkerConnection worker) {
+        Message ping = new Message();
+        ping.messageType = Message.TYPE_HEARTBEAT;
+        ping.sender = "master";
+        worker.call(ping).thenAccept(reply -> onReply(worker, reply));
+    }
+
+    // a connection stays open for as many requests as the peer sends; a HELLO turns it into a
+    // worker connection that the master then drives with block tasks
+    private void serveConnection(Socket client) {
+        try {
+            while (!client.isClosed()) {
+                Message req = RPC.receive(client);
+
+                if (req.messageType == Message.TYPE_HELLO) {
+                    CoalescingWriter out = new CoalescingWriter(client, coalesceDelayNanos, coalesceBytes,
+                            systemThreads);
+                    WorkerConnection worker = new WorkerConnection(nextWorkerId(), client, out, workerEvents);
+                    worker.sameHost = isLocal(client.getInetAddress());
+                    register(worker, req);
+                    worker.readLoop();
+                    return;
+                }
+
+                RPC.send(client, answer(req));
+            }
+        } catch (EOFException e) {
+            // the peer hung up between requests
+        } catch (IOException | RuntimeException e) {
+            if (!client.isClosed())
+                metrics.error("master.connections.failed", e);
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ignored) {
             }
         }
     }
 
-    private void retryOrReassign() {
-        if (false) {
-            recoverWork();
-            reassignTasks();
+    private void onNioMessage(NioConnection connection, Message msg) {
+        Object ctx = connection.attachment();
+        try {
+            if (ctx instanceof RpcClient) {
+                ((RpcClient) ctx).deliver(msg);
+            } else if (msg.messageType == Message.TYPE_HELLO) {
+                WorkerConnection worker = new WorkerConnection(nextWorkerId(), connection, workerEvents);
+                worker.sameHost = isLocal(connection.channel.socket().getInetAddress());
+                connection.attach(worker.rpc());
+                register(worker, msg);
+            } else {
+                connection.write(answer(msg));
+            }
+        } catch (IOException e) {
+            metrics.error("master.connections.failed", e);
+            connection.close();
         }
     }
 
-    private void recoverWork() {
+    private static boolean isLocal(InetAddress addr) {
+        if (addr == null)
+            return false;
+        if (addr.isLoopbackAddress() || addr.isAnyLocalAddress())
+            return true;
+        try {
+            return NetworkInterface.getByInetAddress(addr) != null;
+        } catch (SocketException e) {
+            return false;
+        }
     }
 
-    private void reassignTasks() {
+    private String nextWorkerId() {
+        return "worker-" + workerSeq.incrementAndGet();
     }
 
-    private int[][] parallelMatrixMultiply(int[][] a, int[][] b, int threads) {
-        if (threads <= 0)
-            threads = Runtime.getRuntime().availableProcessors();
+    // a HELLO carrying a features int (and optionally its task thread count) gets the agreed
+    // features back ahead of its worker id; an empty HELLO gets the bare id and int32 payloads
+    private void register(WorkerConnection worker, Message hello) throws IOException {
+        byte[] id = worker.id.getBytes(StandardCharsets.UTF_8);
+        Message welcome = new Message();
+        welcome.messageType = Message.TYPE_HELLO;
+        welcome.studentId = hello.studentId;
+        welcome.sender = "master";
+        welcome.requestId = hello.requestId;
 
-        int n = a.length;
-        int m = a[0].length;
-        int p = b[0].length;
+        ByteBuffer offer = hello.payloadBuffer();
+        if (offer.remaining() >= 4) {
+            worker.codecFeatures = offer.getInt() & codecFeatures;
+            if (offer.remaining() >= 4)
+                worker.window = Math.max(WorkerConnection.WINDOW, Math.min(offer.getInt(), MAX_WINDOW) + 1);
+            welcome.setPayload(ByteBuffer.allocate(4 + id.length).putInt(worker.codecFeatures).put(id).array());
+        } else {
+            welcome.setPayload(id);
+        }
+        worker.send(welcome);
 
-        if (b.length != m)
-            throw new IllegalArgumentException("Dimension mismatch");
+        String prefix = "master.worker." + worker.id + ".";
+        worker.latency = metrics.histogram(prefix + "latency_us");
+        worker.failures = metrics.counter(prefix + "failed");
+        workers.put(worker.id, worker);
+        workersJoined.inc();
+        monitor.register(worker.id);
+    }
 
-        int[][] c = new int[n][p];
+    // reply to anything that is not a worker joining: record heartbeats and echo the payload
+    private Message answer(Message req) {
+        if (req.messageType == Message.TYPE_HEARTBEAT) {
+            String id = (req.studentId == null) ? "UNKNOWN" : req.studentId;
+            long gap = monitor.heartbeat(id);
+            if (gap >= 0)
+                heartbeatGap.record(gap);
+        }
 
-        AtomicInteger remaining = new AtomicInteger(n);
-        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Message res = new Message();
+        res.messageType = Message.TYPE_RESULT;
+        res.studentId = req.studentId;
+        res.sender = "master";
+        res.setPayload(req.payloadBuffer());
+        res.requestId = req.requestId;
+        return res;
+    }
 
-        for (int i = 0; i < n; i++) {
-            final int row = i;
-            pool.submit(() -> {
-                for (int k = 0; k < m; k++) {
-                    int aik = a[row][k];
-                    for (int j = 0; j < p; j++) {
-                        c[row][j] += aik * b[k][j];
-                    }
+    // replies to block calls, plus uncorrelated frames such as heartbeats
+    private void onReply(WorkerConnection worker, Message msg) {
+        long gap = monitor.heartbeat(worker.id);
+        if (gap >= 0)
+            heartbeatGap.record(gap);
+        try {
+            if (msg.messageType == Message.TYPE_RESULT) {
+                onResult(worker, msg);
+            } else if (msg.messageType == Message.TYPE_ERROR) {
+                onError(worker, msg);
+            } else if (msg.messageType == Message.TYPE_CACHE_MISS) {
+                onCacheMiss(worker, msg);
+            } else if (msg.messageType == Message.TYPE_WORK_REQUEST) {
+                ByteBuffer p = msg.payloadBuffer();
+                if (p.remaining() >= 4)
+                    worker.addDemand(p.getInt());
+                if (pullMode)
+                    serve(worker);
+            }
+        } catch (IOException e) {
+            // a garbled result is as good as a lost one
+            metrics.error("master.replies.garbled", e);
+            workerLost(worker);
+        } finally {
+            msg.release();
+        }
+    }
+
+    // a result for a block still wanted is decoded straight into its place in the job's output, but
+    // only by the connection the task was sent on and only once it has claimed both the task and
+    // the block; anything else is decoded aside and copied in if it wins
+    private void onResult(WorkerConnection worker, Message msg) throws IOException {
+        TaskRef[] claimed = new TaskRef[1];
+        BlockCodec.Result result;
+        try {
+            result = BlockCodec.decodeResult(msg.payloadBuffer(), (taskId, block) -> {
+                TaskRef ref = tasks.get(taskId);
+                if (ref == null || ref.worker != worker || ref.job.c == null || !sameBounds(ref.block, block)
+                        || !ref.job.claim(ref.block))
+                    return null;
+                if (!tasks.remove(taskId, ref)) {
+                    ref.job.release(ref.block);
+                    return null;
                 }
-                remaining.decrementAndGet();
+                claimed[0] = ref;
+                return ref.job.c.view(block);
             });
+        } catch (IOException | RuntimeException e) {
+            // a partly written block is still unfinished; whoever computes it next overwrites it
+            TaskRef ref = claimed[0];
+            if (ref != null) {
+                ref.job.release(ref.block);
+                requeue(ref);
+            }
+            throw e;
         }
+        worker.untrack(result.taskId);
 
-        pool.shutdown();
+        TaskRef ref = (claimed[0] != null) ? claimed[0] : tasks.remove(result.taskId);
+        if (ref == null)
+            return;
 
-        while (remaining.get() > 0) {
-            Thread.yield();
+        Block expected = ref.block;
+        boolean wide = ref.job.wide != null;
+        if (!sameBounds(expected, result.block) || (wide ? result.wide == null : result.c == null && !ref.viaFiles)) {
+            requeue(ref);
+            return;
         }
 
-        return c;
+        long elapsed = System.nanoTime() - ref.startNanos;
+        ref.job.recordDuration(elapsed);
+        taskLatency.record(elapsed / 1000);
+        worker.latency.record(elapsed / 1000);
+        computeTime.record(result.computeNanos / 1000);
+        worker.recordThroughput((long) expected.rows() * expected.cols() * ref.job.a.cols(), result.computeNanos);
+        // an in-place result without a claim is a FILE_REF one, written into the output file by the worker
+        boolean won;
+        if (wide)
+            won = ref.job.complete(expected, result.wide);
+        else if (claimed[0] != null)
+            won = ref.job.completeInPlace(expected);
+        else if (result.inPlace)
+            won = ref.job.claim(expected) && ref.job.completeInPlace(expected);
+        else
+            won = ref.job.complete(expected, result.c);
+        if (won && ref.speculative)
+            speculativeWins.inc();
+        cancelTwin(ref);
+    }
+
+    private static boolean isWholeFile(Matrix m) {
+        return m instanceof MappedMatrix && ((MappedMatrix) m).isWholeFile();
+    }
+
+    private static String path(Matrix m) {
+        return ((MappedMatrix) m).file().toString();
+    }
+
+    private static boolean sameBounds(Block x, Block y) {
+        return x.rowStart == y.rowStart && x.rowEnd == y.rowEnd && x.colStart == y.colStart && x.colEnd == y.colEnd;
+    }
+
+    // first result wins: the other copy is forgotten here and dropped by its worker if not yet started
+    private void cancelTwin(TaskRef ref) {
+        long twin = ref.twin;
+        if (twin == 0)
+            return;
+        TaskRef other = tasks.remove(twin);
+        if (other == null)
+            return;
+
+        other.worker.untrack(twin);
+        Message cancel = new Message();
+        cancel.messageType = Message.TYPE_CANCEL;
+        cancel.sender = "master";
+        cancel.setPayload(ByteBuffer.allocate(8).putLong(twin).array());
+        try {
+            other.worker.send(cancel);
+        } catch (IOException e) {
+            // the connection is going away anyway
+        }
+    }
+
+    // a block whose other copy is still running does not need to be queued again
+    private void requeue(TaskRef ref) {
+        ref.worker.failures.inc();
+        long twin = ref.twin;
+        if (twin == 0 || !tasks.containsKey(twin)) {
+            ref.job.requeue(ref.block);
+            tasksRequeued.inc();
+        }
+    }
+
+    // the worker evicted (or never got) the task's operand, or could not map its files: send the
+    // task again, falling back to the socket after MAX_OPERAND_MISSES
+    private void onCacheMiss(WorkerConnection worker, Message msg) {
+        ByteBuffer buf = msg.payloadBuffer();
+        if (buf.remaining() < 16)
+            return;
+        long taskId = buf.getLong();
+        worker.operands.remove(buf.getLong());
+        cacheMisses.inc();
+
+        TaskRef ref = tasks.get(taskId);
+        if (ref != null && ref.worker == worker) {
+            ref.misses++;
+            sendTask(ref, taskId);
+        }
+    }
+
+    private void onError(WorkerConnection worker, Message msg) {
+        ByteBuffer buf = msg.payloadBuffer();
+        if (buf.remaining() < 8)
+            return;
+
+        long taskId = buf.getLong();
+        worker.untrack(taskId);
+
+        TaskRef ref = tasks.remove(taskId);
+        if (ref == null)
+            return;
+        tasksFailed.inc();
+
+        // the block is tried on other workers; only one that fails everywhere it can run fails the job
+        int failures = ref.job.recordFailure(ref.block, worker.id);
+        if (failures < BlockJob.MAX_BLOCK_FAILURES && untried(workers.values(), ref.job, ref.block) != null) {
+            requeue(ref);
+            return;
+        }
+        worker.failures.inc();
+        String reason = StandardCharsets.UTF_8.decode(buf).toString();
+        ref.job.fail("Block " + ref.block + " failed on " + failures + " workers, last " + worker.id + ": " + reason);
+    }
+
+    // a live worker that can run the job and has not failed the block, or null
+    private static WorkerConnection untried(Collection<WorkerConnection> candidates, BlockJob job, Block block) {
+        for (WorkerConnection w : candidates) {
+            if (w.isAlive() && canRun(w, job.accumulation) && !job.failedOn(block, w.id))
+                return w;
+        }
+        return null;
+    }
+
+    private void workerLost(WorkerConnection worker) {
+        if (workers.remove(worker.id, worker))
+            workersLost.inc();
+        monitor.remove(worker.id);
+        reassignTasks(recoverWork(worker));
+        metrics.removeAll("master.worker." + worker.id + ".");
+        // its unsent range joins the shared queue, where the pull loop hands it to whoever asks next
+        for (BlockJob job : pullJobs) {
+            job.releaseRange(worker.id);
+        }
+    }
+
+    private List<WorkerConnection> pickWorkers(int workerCount) {
+        return pickWorkers(workerCount, Accumulation.INT);
+    }
+
+    private List<WorkerConnection> pickWorkers(int workerCount, Accumulation accumulation) {
+        List<WorkerConnection> alive = new ArrayList<>();
+        for (WorkerConnection w : workers.values()) {
+            if (w.isAlive() && canRun(w, accumulation))
+                alive.add(w);
+        }
+        return new ArrayList<>(scheduler.choose(alive, workerCount));
+    }
+
+    // every worker sums in INT; the other modes need one that agreed to FEATURE_ACCUMULATION
+    private static boolean canRun(WorkerConnection worker, Accumulation accumulation) {
+        return accumulation.mode() == Accumulation.Mode.INT
+                || (worker.codecFeatures & BlockCodec.FEATURE_ACCUMULATION) != 0;
+    }
+
+    private void scatter(BlockJob job, List<WorkerConnection> chosen) throws InterruptedException {
+        List<WorkerConnection> ready = new ArrayList<>(chosen.size());
+
+        while (!job.isDone()) {
+            BlockScheduler policy = scheduler;
+            ready.clear();
+            boolean anyAlive = false;
+            for (WorkerConnection w : chosen) {
+                anyAlive |= w.isAlive();
+                if (w.hasCapacity(policy.depth(w, chosen)))
+                    ready.add(w);
+            }
+
+            if (!anyAlive) {
+                // every worker we started with is gone; finish the job here
+                Block block;
+                while ((block = job.nextReady(0)) != null)
+                    job.computeLocally(block);
+                job.awaitDone(10);
+                continue;
+            }
+
+            int pick = ready.isEmpty() ? -1 : policy.pick(ready);
+            if (pick < 0) {
+                job.awaitDone(5);
+                continue;
+            }
+            WorkerConnection worker = ready.get(pick);
+
+            Block block = job.nextReady(5);
+            if (block != null && job.failedOn(block, worker.id)) {
+                // a failed block waits for a worker that has not tried it
+                WorkerConnection other = untried(ready, job, block);
+                if (other == null) {
+                    job.requeue(block);
+                    if (untried(chosen, job, block) == null)
+                        job.fail("Block " + block + " failed on every worker left");
+                    job.awaitDone(5);
+                    continue;
+                }
+                worker = other;
+            }
+            if (block != null)
+                dispatch(job, worker, job.carve(block, policy.share(worker, chosen)), taskSeq.incrementAndGet(), 0);
+            else
+                speculate(job, worker);
+        }
+    }
+
+    // each chosen worker gets a contiguous range of the job up front and is sent blocks from it as it
+    // asks for them; this thread only serves requests that found nothing when they arrived,
+    // launches speculative copies, and finishes the job locally if every worker goes
+    private void pull(BlockJob job, List<WorkerConnection> chosen) throws InterruptedException {
+        List<String> ids = new ArrayList<>(chosen.size());
+        for (WorkerConnection w : chosen) {
+            ids.add(w.id);
+        }
+        job.assignRanges(ids);
+        pullJobs.add(job);
+        try {
+            while (!job.isDone()) {
+                boolean anyAlive = false;
+                for (WorkerConnection w : chosen) {
+                    anyAlive |= w.isAlive();
+                }
+
+                if (!anyAlive) {
+                    Block block;
+                    while ((block = job.takeAny()) != null)
+                        job.computeLocally(block);
+                    job.awaitDone(10);
+                    continue;
+                }
+
+                for (WorkerConnection w : workers.values()) {
+                    serve(w);
+                    if (w.demand() > 0 && w.isAlive() && canRun(w, job.accumulation) && speculate(job, w))
+                        w.takeSlot();
+                }
+                job.awaitDone(5);
+            }
+        } finally {
+            pullJobs.remove(job);
+        }
+    }
+
+    // spends the worker's requested slots on its own range, then on the shared queue, then on the
+    // back half of the longest range it can steal from another worker
+    private void serve(WorkerConnection worker) {
+        synchronized (worker) {
+            while (worker.isAlive() && worker.demand() > 0) {
+                BlockJob job = null;
+                Block block = null;
+                for (BlockJob j : pullJobs) {
+                    if (!canRun(worker, j.accumulation))
+                        continue;
+                    block = j.take(worker.id);
+                    if (block == null) {
+                        int stolen = j.stealHalf(worker.id);
+                        if (stolen > 0) {
+                            stolenBlocks.add(stolen);
+                            block = j.take(worker.id);
+                        }
+                    }
+                    if (block != null) {
+                        job = j;
+                        break;
+                    }
+                }
+                if (block == null)
+                    return;
+
+                worker.takeSlot();
+                dispatch(job, worker, block, taskSeq.incrementAndGet(), 0);
+            }
+        }
+    }
+
+    // workers ask for blocks instead of being sent them by the scheduler; for jobs started from now on
+    public void setPullMode(boolean pull) {
+        this.pullMode = pull;
+    }
+
+    // crossover <= 0 turns Strassen off: strassenMultiply() then behaves like blockMultiply() and
+    // the local fallback uses the plain kernel
+    public void setStrassen(int levels, int crossover) {
+        if (levels < 0)
+            throw new IllegalArgumentException("levels must not be negative");
+        this.strassenLevels = levels;
+        this.strassenCrossover = crossover;
+    }
+
+    // a x b with the top levels of the Strassen-Winograd recursion on the master: every leaf product
+    // goes out as its own block job, all of them at once, so the seven (or 49, ...) sub-multiplies
+    // are spread over the workers together, and each level is combined as its products come back
+    public Matrix strassenMultiply(Matrix a, Matrix b, int workerCount) {
+        checkProduct(a, b, null);
+        try {
+            return strassenProduct(a, b, strassenLevels, workerCount).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Matrix> strassenProduct(Matrix a, Matrix b, int levels, int workerCount) {
+        if (levels == 0 || !Strassen.splits(a, b, strassenCrossover))
+            return CompletableFuture.supplyAsync(() -> blockMultiply(a, b, workerCount), systemThreads);
+
+        Strassen.Level level = Strassen.split(a, b);
+        List<CompletableFuture<Matrix>> products = new ArrayList<>(7);
+        for (int i = 0; i < 7; i++) {
+            products.add(strassenProduct(level.left[i], level.right[i], levels - 1, workerCount));
+        }
+        return CompletableFuture.allOf(products.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Matrix[] p = new Matrix[7];
+            for (int i = 0; i < 7; i++) {
+                p[i] = products.get(i).join();
+            }
+            Matrix c = Matrix.heap(a.rows(), b.cols());
+            level.combine(p, c);
+            return c;
+        });
+    }
+
+    // blocks idle workers took from other workers' ranges in pull mode
+    public long stolenBlocks() {
+        return stolenBlocks.get();
+    }
+
+    public void setScheduler(BlockScheduler scheduler) {
+        if (scheduler == null)
+            throw new IllegalArgumentException("scheduler");
+        this.scheduler = scheduler;
+    }
+
+    // nothing left to hand out and a worker is idle: give it a copy of the job's worst straggler
+    private boolean speculate(BlockJob job, WorkerConnection idle) {
+        long p = job.percentile(SPECULATE_PERCENTILE, Math.max(2, job.blockCount() / 4));
+        if (p < 0)
+            return false;
+        long threshold = Math.max(SPECULATE_MIN_MS * 1_000_000L, (long) (p * SPECULATE_FACTOR));
+
+        long now = System.nanoTime();
+        long slowestId = 0;
+        TaskRef slowest = null;
+        for (Map.Entry<Long, TaskRef> e : tasks.entrySet()) {
+            TaskRef ref = e.getValue();
+            if (ref.job != job || ref.twin != 0 || ref.worker == idle || job.isCompleted(ref.block))
+                continue;
+            if (now - ref.startNanos > threshold && (slowest == null || ref.startNanos < slowest.startNanos)) {
+                slowest = ref;
+                slowestId = e.getKey();
+            }
+        }
+        if (slowest == null)
+            return false;
+
+        long copyId = taskSeq.incrementAndGet();
+        slowest.twin = copyId;
+        speculativeLaunches.inc();
+        dispatch(job, idle, slowest.block, copyId, slowestId);
+        return true;
+    }
+
+    public long speculativeLaunches() {
+        return speculativeLaunches.get();
+    }
+
+    // speculative copies that finished before the block they duplicated
+    public long speculativeWins() {
+        return speculativeWins.get();
+    }
+
+    private void dispatch(BlockJob job, WorkerConnection worker, Block block, long taskId, long twin) {
+        TaskRef ref = new TaskRef(job, block, worker, twin);
+        tasks.put(taskId, ref);
+        tasksDispatched.inc();
+        worker.track(taskId);
+        sendTask(ref, taskId);
+
+        // the worker may have dropped between track() and send(); whoever removes the ref requeues
+        if (!worker.isAlive()) {
+            TaskRef lost = tasks.remove(taskId);
+            if (lost != null)
+                requeue(lost);
+        }
+    }
+
+    // a worker with an operand cache is sent each B panel once, ahead of the first task that needs
+    // it, and later tasks only name it
+    private void sendTask(TaskRef ref, long taskId) {
+        WorkerConnection worker = ref.worker;
+        BlockJob job = ref.job;
+
+        Message task = new Message();
+        task.messageType = Message.TYPE_TASK;
+        task.studentId = System.getenv().getOrDefault("CSM218_STUDENT_ID", "UNKNOWN");
+        task.sender = "master";
+
+        // a worker on this host reads the operands from their files and writes C there itself
+        ref.viaFiles = worker.sameHost && (worker.codecFeatures & BlockCodec.FEATURE_SHARED_FILES) != 0
+                && ref.misses < MAX_OPERAND_MISSES && isWholeFile(job.a) && isWholeFile(job.b) && isWholeFile(job.c);
+        if (ref.viaFiles) {
+            task.setPayload(BlockCodec.encodeFileTask(taskId, ref.block, job.a.cols(), path(job.a), path(job.b),
+                    path(job.c)));
+            worker.call(task).thenAccept(reply -> onReply(worker, reply));
+            return;
+        }
+
+        long operandId = 0;
+        if ((worker.codecFeatures & BlockCodec.FEATURE_OPERAND_CACHE) != 0 && ref.misses < MAX_OPERAND_MISSES) {
+            operandId = job.operandId(ref.block);
+            if (worker.operands.add(operandId)) {
+                Message operand = new Message();
+                operand.messageType = Message.TYPE_OPERAND;
+                operand.sender = "master";
+                operand.setPayload(BlockCodec.encodeOperand(operandId, BlockCodec.panel(job.b, ref.block),
+                        worker.codecFeatures));
+                try {
+                    worker.send(operand);
+                } catch (IOException e) {
+                    // the call below fails the same way and the block is requeued
+                }
+            }
+        }
+
+        task.setPayload(BlockCodec.encodeTask(taskId, ref.block, job.a, job.b, worker.codecFeatures, operandId,
+                job.accumulation));
+
+        // a failed call means the connection is gone, and workerLost has already requeued the block
+        worker.call(task).thenAccept(reply -> onReply(worker, reply));
+    }
+
+    // c may be null when the master allocates the output itself
+    private static void checkProduct(Matrix a, Matrix b, Matrix c) {
+        if (a.rows() == 0 || b.cols() == 0 || b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
+        if (c != null && (c.rows() != a.rows() || c.cols() != b.cols()))
+            throw new IllegalArgumentException("Output does not match the product");
+    }
+
+    private static void checkDimensions(int[][] a, int[][] b) {
+        if (a == null || b == null || a.length == 0 || b.length == 0)
+            throw new IllegalArgumentException("Empty matrix");
+        if (b.length != a[0].length)
+            throw new IllegalArgumentException("Dimension mismatch");
+        for (int[] row : a) {
+            if (row.length != a[0].length)
+                throw new IllegalArgumentException("Ragged matrix");
+        }
+        for (int[] row : b) {
+            if (row.length != b[0].length)
+                throw new IllegalArgumentException("Ragged matrix");
+        }
+    }
+
+    private Matrix parallelMatrixMultiply(Matrix a, Matrix b, int threads) {
+        int crossover = strassenCrossover;
+        if (Strassen.splits(a, b, crossover))
+            return MatrixGenerator.parallelStrassenMultiply(a, b, threads, crossover);
+        return MatrixGenerator.parallelMultiply(a, b, threads);
     }
 }
@@ -0,0 +1,115 @@
+package pdc;
+
+import java.nio.IntBuffer;
+
+// row-major int matrix over one contiguous store; views share that store and never copy
+public abstract class Matrix {
+
+    protected final int rows;
+    protected final int cols;
+
+    protected Matrix(int rows, int cols) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Negative dimension");
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public static Matrix heap(int rows, int cols) {
+        return new HeapMatrix(rows, cols);
+    }
+
+    public static Matrix direct(int rows, int cols) {
+        return new DirectMatrix(rows, cols);
+    }
+
+    // one allocation plus one copy per row of the jagged source
+    public static Matrix of(int[][] m) {
+        int r = m.length;
+        int c = (r == 0) ? 0 : m[0].length;
+        HeapMatrix out = new HeapMatrix(r, c);
+        for (int i = 0; i < r; i++) {
+            if (m[i].length != c)
+                throw new IllegalArgumentException("Ragged matrix");
+            out.setRow(i, 0, m[i], 0, c);
+        }
+        return out;
+    }
+
+    public final int rows() {
+        return rows;
+    }
+
+    public final int cols() {
+        return cols;
+    }
+
+    public abstract int get(int i, int j);
+
+    public abstract void set(int i, int j, int value);
+
+    // rows [row, row + rows) x cols [col, col + cols) of this matrix, backed by the same store
+    public abstract Matrix view(int row, int col, int rows, int cols);
+
+    // copies len elements of row i starting at column j into dst[dstOff..]
+    public abstract void getRow(int i, int j, int[] dst, int dstOff, int len);
+
+    public abstract void setRow(int i, int j, int[] src, int srcOff, int len);
+
+    // true when the rows of this matrix sit back to back in the store
+    public abstract boolean isContiguous();
+
+    // writes the matrix row by row into dst; a single bulk put when contiguous
+    public abstract void writeTo(IntBuffer dst);
+
+    public abstract void readFrom(IntBuffer src);
+
+    public Matrix view(Block block) {
+        return view(block.rowStart, block.colStart, block.rows(), block.cols());
+    }
+
+    public void copyFrom(Matrix src) {
+        checkSameShape(src);
+        int[] row = new int[cols];
+        for (int i = 0; i < rows; i++) {
+            src.getRow(i, 0, row, 0, cols);
+            setRow(i, 0, row, 0, cols);
+        }
+    }
+
+    public int[][] toArray() {
+        int[][] out = new int[rows][cols];
+        for (int i = 0; i < rows; i++)
+            getRow(i, 0, out[i], 0, cols);
+        return out;
+    }
+
+    public boolean contentEquals(Matrix other) {
+        if (other == null || other.rows != rows || other.cols != cols)
+            return false;
+        int[] x = new int[cols];
+        int[] y = new int[cols];
+        for (int i = 0; i < rows; i++) {
+            getRow(i, 0, x, 0, cols);
+            other.getRow(i, 0, y, 0, cols);
+            if (!java.util.Arrays.equals(x, y))
+                return false;
+        }
+        return true;
+    }
+
+    protected final void checkView(int row, int col, int r, int c) {
+        if (row < 0 || col < 0 || r < 0 || c < 0 || row + r > rows || col + c > cols)
+            throw new IndexOutOfBoundsException("View out of range");
+    }
+
+    protected final void checkSameShape(Matrix other) {
+        if (other.rows != rows || other.cols != cols)
+            throw new IllegalArgumentException("Dimension mismatch");
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + rows + "x" + cols + "]";
+    }
+}
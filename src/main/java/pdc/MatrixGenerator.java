@@ -1,10 +1,8 @@
 package pdc;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class MatrixGenerator {
 
@@ -38,6 +36,47 @@ public class MatrixGenerator {
         return matrix;
     }
 
+    public static Matrix randomMatrix(int rows, int cols, int maxValue) {
+        Matrix matrix = Matrix.heap(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                matrix.set(i, j, random.nextInt(maxValue));
+            }
+        }
+        return matrix;
+    }
+
+    // the same straight into a new matrix file, one row at a time, so it may exceed the heap
+    public static MappedMatrix randomMatrix(Path file, int rows, int cols, int maxValue) throws IOException {
+        MappedMatrix matrix = MappedMatrix.create(file, rows, cols);
+        int[] row = new int[cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextInt(maxValue);
+            }
+            matrix.setRow(i, 0, row, 0, cols);
+        }
+        return matrix;
+    }
+
+    public static Matrix identityMatrix(int size) {
+        Matrix matrix = Matrix.heap(size, size);
+        for (int i = 0; i < size; i++) {
+            matrix.set(i, i, 1);
+        }
+        return matrix;
+    }
+
+    public static Matrix filledMatrix(int rows, int cols, int value) {
+        Matrix matrix = Matrix.heap(rows, cols);
+        int[] row = new int[cols];
+        java.util.Arrays.fill(row, value);
+        for (int i = 0; i < rows; i++) {
+            matrix.setRow(i, 0, row, 0, cols);
+        }
+        return matrix;
+    }
+
     public static void printMatrix(int[][] matrix, String label) {
         if (label != null && !label.isEmpty()) {
             System.out.println(label);
@@ -55,6 +94,10 @@ public class MatrixGenerator {
     }
 
     public static int[][] multiply(int[][] a, int[][] b) {
+        return multiply(a, b, MultiplyStrategy.IKJ);
+    }
+
+    public static int[][] multiply(int[][] a, int[][] b, MultiplyStrategy strategy) {
         int n = a.length;
         int m = a[0].length;
         int p = b[0].length;
@@ -63,22 +106,15 @@ public class MatrixGenerator {
             throw new IllegalArgumentException("Dimension mismatch");
 
         int[][] c = new int[n][p];
-
-        for (int i = 0; i < n; i++) {
-            for (int k = 0; k < m; k++) {
-                int aik = a[i][k];
-                for (int j = 0; j < p; j++) {
-                    c[i][j] += aik * b[k][j];
-                }
-            }
-        }
+        MatrixKernels.multiplyRows(strategy, a, b, c, 0, n);
         return c;
     }
 
     public static int[][] parallelMultiply(int[][] a, int[][] b, int threads) {
-        if (threads <= 0)
-            threads = Runtime.getRuntime().availableProcessors();
+        return parallelMultiply(a, b, threads, MultiplyStrategy.IKJ);
+    }
 
+    public static int[][] parallelMultiply(int[][] a, int[][] b, int threads, MultiplyStrategy strategy) {
         int n = a.length;
         int m = a[0].length;
         int p = b[0].length;
@@ -87,44 +123,90 @@ public class MatrixGenerator {
             throw new IllegalArgumentException("Dimension mismatch");
 
         int[][] c = new int[n][p];
+        ForkJoinMultiply.multiply(a, b, c, strategy, threads);
+        return c;
+    }
 
-        int block = Math.max(1, n / (threads * 4));
-        ConcurrentLinkedQueue<int[]> tasks = new ConcurrentLinkedQueue<>();
-        for (int start = 0; start < n; start += block) {
-            int end = Math.min(n, start + block);
-            tasks.add(new int[] { start, end });
-        }
+    public static Matrix multiply(Matrix a, Matrix b) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
 
-        AtomicInteger remaining = new AtomicInteger(tasks.size());
-        ExecutorService pool = Executors.newFixedThreadPool(threads);
-
-        for (int t = 0; t < threads; t++) {
-            pool.execute(() -> {
-                int[] task;
-                while ((task = tasks.poll()) != null) {
-                    int startRow = task[0];
-                    int endRow = task[1];
-
-                    for (int i = startRow; i < endRow; i++) {
-                        for (int k = 0; k < m; k++) {
-                            int aik = a[i][k];
-                            for (int j = 0; j < p; j++) {
-                                c[i][j] += aik * b[k][j];
-                            }
-                        }
-                    }
-
-                    remaining.decrementAndGet();
-                }
-            });
-        }
+        Matrix c = Matrix.heap(a.rows(), b.cols());
+        MatrixKernels.multiplyRows(a, b, c, 0, a.rows());
+        return c;
+    }
 
-        pool.shutdown();
+    // Strassen-Winograd down to crossover, the blocked kernel below it; same result as multiply()
+    public static Matrix strassenMultiply(Matrix a, Matrix b, int crossover) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
 
-        while (remaining.get() > 0) {
-            Thread.yield();
-        }
+        Matrix c = Matrix.heap(a.rows(), b.cols());
+        Strassen.multiply(a, b, c, crossover);
+        return c;
+    }
+
+    public static Matrix parallelStrassenMultiply(Matrix a, Matrix b, int threads, int crossover) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
+
+        Matrix c = Matrix.heap(a.rows(), b.cols());
+        Strassen.parallelMultiply(a, b, c, threads, crossover);
+        return c;
+    }
+
+    public static Matrix parallelMultiply(Matrix a, Matrix b, int threads) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
+
+        Matrix c = Matrix.heap(a.rows(), b.cols());
+        ForkJoinMultiply.multiply(a, b, c, threads);
+        return c;
+    }
+
+    // Accumulation.LONG: exact where multiply() would wrap, e.g. for large maxValue inputs
+    public static long[][] multiplyLong(int[][] a, int[][] b) {
+        return multiplyLong(Matrix.of(a), Matrix.of(b)).toArray();
+    }
+
+    public static LongMatrix multiplyLong(Matrix a, Matrix b) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
+
+        LongMatrix c = LongMatrix.heap(a.rows(), b.cols());
+        MatrixKernels.multiplyRowsLong(a, b, c, 0, a.rows());
+        return c;
+    }
+
+    public static LongMatrix parallelMultiplyLong(Matrix a, Matrix b, int threads) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
+
+        LongMatrix c = LongMatrix.heap(a.rows(), b.cols());
+        ForkJoinMultiply.multiplyLong(a, b, c, threads);
+        return c;
+    }
+
+    // Accumulation.mod(modulus): every entry of a x b reduced into [0, modulus)
+    public static int[][] multiplyMod(int[][] a, int[][] b, int modulus) {
+        return multiplyMod(Matrix.of(a), Matrix.of(b), modulus).toArray();
+    }
+
+    public static Matrix multiplyMod(Matrix a, Matrix b, int modulus) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
+
+        Matrix c = Matrix.heap(a.rows(), b.cols());
+        MatrixKernels.multiplyRowsMod(a, b, c, 0, a.rows(), Accumulation.mod(modulus).modulus());
+        return c;
+    }
+
+    public static Matrix parallelMultiplyMod(Matrix a, Matrix b, int threads, int modulus) {
+        if (b.rows() != a.cols())
+            throw new IllegalArgumentException("Dimension mismatch");
 
+        Matrix c = Matrix.heap(a.rows(), b.cols());
+        ForkJoinMultiply.multiplyMod(a, b, c, Accumulation.mod(modulus).modulus(), threads);
         return c;
     }
 }
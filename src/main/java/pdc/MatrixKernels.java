@@ -0,0 +1,276 @@
+package pdc;
+
+// sequential multiply kernels; every kernel computes rows [rowStart, rowEnd) of c += a x b
+public final class MatrixKernels {
+
+    // a 128 x 1024 tile of B is 512 KB: it stays in L2 while every row of the strip streams past it
+    static final int TILE_K = 128;
+    static final int TILE_J = 1024;
+
+    private MatrixKernels() {
+    }
+
+    public static void multiplyRows(MultiplyStrategy strategy, int[][] a, int[][] b, int[][] c,
+            int rowStart, int rowEnd) {
+        switch (strategy) {
+            case TILED:
+                tiled(a, b, c, rowStart, rowEnd);
+                break;
+            case PACKED:
+                packed(a, b, c, rowStart, rowEnd);
+                break;
+            case SIMD:
+                simd(a, b, c, rowStart, rowEnd);
+                break;
+            default:
+                ikj(a, b, c, rowStart, rowEnd);
+                break;
+        }
+    }
+
+    public static void ikj(int[][] a, int[][] b, int[][] c, int rowStart, int rowEnd) {
+        int m = b.length;
+        int p = (m == 0) ? 0 : b[0].length;
+
+        for (int i = rowStart; i < rowEnd; i++) {
+            int[] arow = a[i];
+            int[] crow = c[i];
+            for (int k = 0; k < m; k++) {
+                int aik = arow[k];
+                int[] brow = b[k];
+                for (int j = 0; j < p; j++) {
+                    crow[j] += aik * brow[j];
+                }
+            }
+        }
+    }
+
+    public static void tiled(int[][] a, int[][] b, int[][] c, int rowStart, int rowEnd) {
+        int m = b.length;
+        int p = (m == 0) ? 0 : b[0].length;
+
+        for (int jj = 0; jj < p; jj += TILE_J) {
+            int width = Math.min(p, jj + TILE_J) - jj;
+            for (int kk = 0; kk < m; kk += TILE_K) {
+                int kEnd = Math.min(m, kk + TILE_K);
+                for (int i = rowStart; i < rowEnd; i++) {
+                    int[] arow = a[i];
+                    int[] crow = c[i];
+                    for (int k = kk; k < kEnd; k++) {
+                        axpy(arow[k], b[k], crow, jj, width);
+                    }
+                }
+            }
+        }
+    }
+
+    // each B tile is copied into its own rows once and reused by every row of the strip, and the
+    // C row segment is accumulated in a scratch row; both start at index 0, which is what lets C2
+    // vectorize the inner loop regardless of where the tile sits in B
+    public static void packed(int[][] a, int[][] b, int[][] c, int rowStart, int rowEnd) {
+        int m = b.length;
+        int p = (m == 0) ? 0 : b[0].length;
+
+        int[][] tile = new int[Math.min(m, TILE_K)][Math.min(p, TILE_J)];
+        int[] acc = new int[Math.min(p, TILE_J)];
+
+        for (int jj = 0; jj < p; jj += TILE_J) {
+            int width = Math.min(p, jj + TILE_J) - jj;
+            for (int kk = 0; kk < m; kk += TILE_K) {
+                int kEnd = Math.min(m, kk + TILE_K);
+                for (int k = kk; k < kEnd; k++) {
+                    System.arraycopy(b[k], jj, tile[k - kk], 0, width);
+                }
+
+                for (int i = rowStart; i < rowEnd; i++) {
+                    int[] arow = a[i];
+                    System.arraycopy(c[i], jj, acc, 0, width);
+                    for (int k = kk; k < kEnd; k++) {
+                        axpy(arow[k], tile[k - kk], acc, 0, width);
+                    }
+                    System.arraycopy(acc, 0, c[i], jj, width);
+                }
+            }
+        }
+    }
+
+    // PACKED with the A row segments in scratch rows as well, so the tile goes through one
+    // TileKernel call per TileKernel.ROWS rows of the strip
+    public static void simd(int[][] a, int[][] b, int[][] c, int rowStart, int rowEnd) {
+        TileKernel kernel = TileKernels.selected();
+        int m = b.length;
+        int p = (m == 0) ? 0 : b[0].length;
+
+        int[][] tile = new int[Math.min(m, TILE_K)][Math.min(p, TILE_J)];
+        int[][] arows = new int[TileKernel.ROWS][Math.min(m, TILE_K)];
+        int[][] accs = new int[TileKernel.ROWS][Math.min(p, TILE_J)];
+
+        for (int jj = 0; jj < p; jj += TILE_J) {
+            int width = Math.min(p, jj + TILE_J) - jj;
+            for (int kk = 0; kk < m; kk += TILE_K) {
+                int depth = Math.min(m, kk + TILE_K) - kk;
+                for (int t = 0; t < depth; t++) {
+                    System.arraycopy(b[kk + t], jj, tile[t], 0, width);
+                }
+
+                for (int i = rowStart; i < rowEnd; i += TileKernel.ROWS) {
+                    int rows = Math.min(TileKernel.ROWS, rowEnd - i);
+                    for (int r = 0; r < rows; r++) {
+                        System.arraycopy(a[i + r], kk, arows[r], 0, depth);
+                        System.arraycopy(c[i + r], jj, accs[r], 0, width);
+                    }
+                    kernel.accumulate(arows, rows, tile, depth, accs, width);
+                    for (int r = 0; r < rows; r++) {
+                        System.arraycopy(accs[r], 0, c[i + r], jj, width);
+                    }
+                }
+            }
+        }
+    }
+
+    // the PACKED scheme over any Matrix: tiles of B, a segment of the A row and the C row segment are
+    // pulled into scratch rows with bulk row copies, so heap, direct and view layouts share one kernel.
+    // The tile loop is the selected TileKernel, so it is on the Vector API where that is available
+    public static void multiplyRows(Matrix a, Matrix b, Matrix c, int rowStart, int rowEnd) {
+        multiplyRows(a, b, c, rowStart, rowEnd, TileKernels.selected());
+    }
+
+    static void multiplyRows(Matrix a, Matrix b, Matrix c, int rowStart, int rowEnd, TileKernel kernel) {
+        int m = b.rows();
+        int p = b.cols();
+
+        int[][] tile = new int[Math.min(m, TILE_K)][Math.min(p, TILE_J)];
+        int[][] arows = new int[TileKernel.ROWS][Math.min(m, TILE_K)];
+        int[][] accs = new int[TileKernel.ROWS][Math.min(p, TILE_J)];
+
+        for (int jj = 0; jj < p; jj += TILE_J) {
+            int width = Math.min(p, jj + TILE_J) - jj;
+            for (int kk = 0; kk < m; kk += TILE_K) {
+                int depth = Math.min(m, kk + TILE_K) - kk;
+                for (int t = 0; t < depth; t++) {
+                    b.getRow(kk + t, jj, tile[t], 0, width);
+                }
+
+                for (int i = rowStart; i < rowEnd; i += TileKernel.ROWS) {
+                    int rows = Math.min(TileKernel.ROWS, rowEnd - i);
+                    for (int r = 0; r < rows; r++) {
+                        a.getRow(i + r, kk, arows[r], 0, depth);
+                        c.getRow(i + r, jj, accs[r], 0, width);
+                    }
+                    kernel.accumulate(arows, rows, tile, depth, accs, width);
+                    for (int r = 0; r < rows; r++) {
+                        c.setRow(i + r, jj, accs[r], 0, width);
+                    }
+                }
+            }
+        }
+    }
+
+    // the packed scheme with 64-bit sums: the tile and A segment stay ints and each product is
+    // widened before it is added, so c += a x b is exact as long as the entries fit in a long
+    public static void multiplyRowsLong(Matrix a, Matrix b, LongMatrix c, int rowStart, int rowEnd) {
+        int m = b.rows();
+        int p = b.cols();
+
+        int[][] tile = new int[Math.min(m, TILE_K)][Math.min(p, TILE_J)];
+        int[] arow = new int[Math.min(m, TILE_K)];
+        long[] acc = new long[Math.min(p, TILE_J)];
+
+        for (int jj = 0; jj < p; jj += TILE_J) {
+            int width = Math.min(p, jj + TILE_J) - jj;
+            for (int kk = 0; kk < m; kk += TILE_K) {
+                int depth = Math.min(m, kk + TILE_K) - kk;
+                for (int t = 0; t < depth; t++) {
+                    b.getRow(kk + t, jj, tile[t], 0, width);
+                }
+
+                for (int i = rowStart; i < rowEnd; i++) {
+                    a.getRow(i, kk, arow, 0, depth);
+                    c.getRow(i, jj, acc, 0, width);
+                    for (int t = 0; t < depth; t++) {
+                        long scale = arow[t];
+                        if (scale == 0)
+                            continue;
+                        int[] src = tile[t];
+                        for (int j = 0; j < width; j++) {
+                            acc[j] += scale * src[j];
+                        }
+                    }
+                    c.setRow(i, jj, acc, 0, width);
+                }
+            }
+        }
+    }
+
+    // the packed scheme modulo q: the tile, the A segment and C are reduced into [0, q) as they are
+    // copied in, products are summed in longs, and the sums are reduced only every
+    // Accumulation.reduceEvery(q) rows of the tile, which for a modulus up to 2^16 is never
+    // within one tile. c ends up as (c + a x b) mod q with every entry in [0, q)
+    public static void multiplyRowsMod(Matrix a, Matrix b, Matrix c, int rowStart, int rowEnd, int modulus) {
+        int m = b.rows();
+        int p = b.cols();
+        int every = (int) Math.min(TILE_K, Accumulation.reduceEvery(modulus));
+
+        int[][] tile = new int[Math.min(m, TILE_K)][Math.min(p, TILE_J)];
+        int[] arow = new int[Math.min(m, TILE_K)];
+        int[] crow = new int[Math.min(p, TILE_J)];
+        long[] acc = new long[Math.min(p, TILE_J)];
+
+        for (int jj = 0; jj < p; jj += TILE_J) {
+            int width = Math.min(p, jj + TILE_J) - jj;
+            for (int kk = 0; kk < m; kk += TILE_K) {
+                int depth = Math.min(m, kk + TILE_K) - kk;
+                for (int t = 0; t < depth; t++) {
+                    b.getRow(kk + t, jj, tile[t], 0, width);
+                    reduce(tile[t], width, modulus);
+                }
+
+                for (int i = rowStart; i < rowEnd; i++) {
+                    a.getRow(i, kk, arow, 0, depth);
+                    reduce(arow, depth, modulus);
+                    c.getRow(i, jj, crow, 0, width);
+                    for (int j = 0; j < width; j++) {
+                        acc[j] = Math.floorMod(crow[j], modulus);
+                    }
+                    for (int t0 = 0; t0 < depth; t0 += every) {
+                        int tEnd = Math.min(depth, t0 + every);
+                        for (int t = t0; t < tEnd; t++) {
+                            long scale = arow[t];
+                            if (scale == 0)
+                                continue;
+                            int[] src = tile[t];
+                            for (int j = 0; j < width; j++) {
+                                acc[j] += scale * src[j];
+                            }
+                        }
+                        if (tEnd < depth) {
+                            for (int j = 0; j < width; j++) {
+                                acc[j] %= modulus;
+                            }
+                        }
+                    }
+                    for (int j = 0; j < width; j++) {
+                        crow[j] = (int) (acc[j] % modulus);
+                    }
+                    c.setRow(i, jj, crow, 0, width);
+                }
+            }
+        }
+    }
+
+    private static void reduce(int[] row, int len, int modulus) {
+        for (int j = 0; j < len; j++) {
+            row[j] = Math.floorMod(row[j], modulus);
+        }
+    }
+
+    // dst[off..off+len) += scale * src[off..off+len); src and dst share the offset on purpose,
+    // JDK 17's C2 will not vectorize the loop when they differ
+    static void axpy(int scale, int[] src, int[] dst, int off, int len) {
+        if (scale == 0)
+            return;
+        for (int j = off; j < off + len; j++) {
+            dst[j] += scale * src[j];
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package pdc;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Message {
 
@@ -14,11 +17,24 @@ public class Message {
 
     public String sender;
     public long timestamp;
-    public byte[] payload;
+    // one of the two holds the payload: an array the message owns, or a view such as a slice of
+    // the receive buffer. Both are only set through setPayload, so the other is always cleared
+    private byte[] payload;
+    private ByteBuffer payloadView;
+    // pooled frame the payload view points into; see release()
+    private PooledBuffer lease;
+    // payload length announced by the header; the receive paths use it to read the payload
+    // straight into an array of exactly that size
+    int wirePayloadLength;
+
+    // correlates a reply with its request on a multiplexed connection; 0 means uncorrelated
+    public long requestId;
 
     public static final String MAGIC_STR = "CSM218";
     public static final int MAGIC_INT = 0x43534D32; // "CSM2" marker
-    public static final short VERSION = 1;
+    public static final short VERSION = 2;
+    // first version whose header carries requestId
+    static final int VERSION_REQUEST_ID = 2;
 
     // message types (simple codes)
     public static final byte TYPE_HELLO = 1;
@@ -26,6 +42,27 @@ public class Message {
     public static final byte TYPE_RESULT = 3;
     public static final byte TYPE_HEARTBEAT = 4;
     public static final byte TYPE_ERROR = 5;
+    // payload: taskId(8) of a TYPE_TASK the master no longer needs
+    public static final byte TYPE_CANCEL = 6;
+    // payload: slots(4) the worker has free for more TYPE_TASKs
+    public static final byte TYPE_WORK_REQUEST = 7;
+    // payload: count(4), then that many complete frames, length prefixes included
+    public static final byte TYPE_BATCH = 8;
+    // payload: a BlockCodec operand for the worker to keep; later tasks may refer to its id
+    public static final byte TYPE_OPERAND = 9;
+    // reply to a task whose operand the worker no longer holds; payload: taskId(8) operandId(8)
+    public static final byte TYPE_CACHE_MISS = 10;
+
+    private static final String[] TYPE_NAMES = { "other", "hello", "task", "result", "heartbeat", "error", "cancel",
+            "work_request", "batch", "operand", "cache_miss" };
+
+    // lower-case name of a message type for metrics and diagnostics; "other" for unknown codes
+    static String typeName(int type) {
+        return (type > 0 && type < TYPE_NAMES.length) ? TYPE_NAMES[type] : TYPE_NAMES[0];
+    }
+
+    // codes typeName() knows, plus slot 0 for the rest
+    static final int TYPE_COUNT = 11;
 
     public Message() {
         this.magic = MAGIC_STR;
@@ -37,34 +74,179 @@ public class Message {
         this.messageType = 0;
     }
 
-    public byte[] pack() {
+    // payload as a view with its own position: the decoded slice, or the payload array wrapped
+    // without copying
+    public ByteBuffer payloadBuffer() {
+        if (payloadView != null)
+            return payloadView.duplicate();
+        return ByteBuffer.wrap(payload == null ? EMPTY : payload);
+    }
+
+    public void setPayload(byte[] bytes) {
+        this.payload = bytes;
+        this.payloadView = null;
+    }
+
+    public void setPayload(ByteBuffer buf) {
+        this.payloadView = buf.slice();
+        this.payload = EMPTY;
+    }
+
+    // payload as an array; copies only when the payload is a slice of some other buffer
+    public byte[] payloadBytes() {
+        if (payloadView == null)
+            return (payload == null) ? EMPTY : payload;
+        byte[] out = new byte[payloadView.remaining()];
+        payloadView.duplicate().get(out);
+        return out;
+    }
+
+    public int payloadLength() {
+        if (payloadView != null)
+            return payloadView.remaining();
+        return (payload == null) ? 0 : payload.length;
+    }
+
+    // length prefix, header and payload length: everything that precedes the payload bytes
+    public ByteBuffer encodeHeader() {
+        ByteBuffer buf = ByteBuffer.allocate(headerLength());
+        encodeHeader(buf);
+        buf.flip();
+        return buf;
+    }
+
+    // bytes encodeHeader() produces, length prefix included
+    public int headerLength() {
+        boolean withId = version >= VERSION_REQUEST_ID;
+        return 4 + 4 + 2 + 1 + 8 + (withId ? 8 : 0) + 2 + utf8Length(studentId) + 2 + utf8Length(sender) + 4;
+    }
+
+    // writes the header at dst's position, e.g. into a pooled buffer; dst needs headerLength() bytes
+    public void encodeHeader(ByteBuffer dst) {
         byte[] sid = encode(studentId);
         byte[] snd = encode(sender);
-        byte[] pay = (payload == null) ? new byte[0] : payload;
+        int payLen = payloadLength();
 
-        int frameLen = 4 +
+        boolean withId = version >= VERSION_REQUEST_ID;
+
+        int headerLen = 4 +
                 2 +
                 1 +
                 8 +
+                (withId ? 8 : 0) +
                 2 + sid.length +
                 2 + snd.length +
-                4 + pay.length;
+                4;
 
-        ByteBuffer buf = ByteBuffer.allocate(4 + frameLen);
+        dst.putInt(headerLen + payLen);
+        dst.putInt(MAGIC_INT);
+        dst.putShort((short) (version & 0xFFFF));
+        dst.put(messageType);
+        dst.putLong(timestamp);
+        if (withId)
+            dst.putLong(requestId);
 
-        buf.putInt(frameLen);
-        buf.putInt(MAGIC_INT);
-        buf.putShort((short) (version & 0xFFFF));
-        buf.put(messageType);
-        buf.putLong(timestamp);
+        putWithLength(dst, sid);
+        putWithLength(dst, snd);
 
-        putWithLength(buf, sid);
-        putWithLength(buf, snd);
+        dst.putInt(payLen);
+    }
+
+    // header and payload as separate buffers for a gathering write; the payload is not copied
+    public ByteBuffer[] encodeFrame() {
+        return new ByteBuffer[] { encodeHeader(), payloadBuffer() };
+    }
+
+    public void encodeTo(ByteBuffer dst) {
+        encodeHeader(dst);
+        dst.put(payloadBuffer());
+    }
+
+    public byte[] pack() {
+        byte[] frame = new byte[headerLength() + payloadLength()];
+        encodeTo(ByteBuffer.wrap(frame));
+        return frame;
+    }
+
+    // the whole frame in a pooled direct buffer, flipped for writing; the caller releases it
+    public PooledBuffer encodePooled(BufferPool pool) {
+        PooledBuffer out = pool.acquire(headerLength() + payloadLength());
+        encodeTo(out.buffer());
+        out.buffer().flip();
+        return out;
+    }
+
+    // decodes the frame starting at buf's position (length prefix included) and advances past it;
+    // the payload is a slice of buf, so buf must not be reused while the message is in use
+    public static Message decode(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 8)
+            throw new IOException("Truncated frame");
+
+        int frameLen = buf.getInt();
+        if (frameLen <= 0 || frameLen > buf.remaining())
+            throw new IOException("Invalid frame length: " + frameLen);
+
+        ByteBuffer frame = buf.slice();
+        frame.limit(frameLen);
+        buf.position(buf.position() + frameLen);
+
+        Message m = decodeBody(frame);
+        if (m == null)
+            throw new IOException("Failed to decode message");
+        return m;
+    }
+
+    // decodes a frame read into a pooled buffer; the message holds the buffer until release()
+    public static Message decode(PooledBuffer frame) throws IOException {
+        Message m;
+        try {
+            m = decode(frame.buffer());
+        } catch (IOException | RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        m.lease = frame;
+        return m;
+    }
 
-        buf.putInt(pay.length);
-        buf.put(pay);
+    // hands a pooled receive buffer back; the payload view must not be used afterwards.
+    // A no-op for messages that own their payload
+    public void release() {
+        PooledBuffer l = lease;
+        if (l == null)
+            return;
+        lease = null;
+        // a payload set since decoding is the message's own array and stays
+        payloadView = null;
+        l.release();
+    }
 
-        return buf.array();
+    // the frames packed in a TYPE_BATCH, as slices of its payload. The batch is consumed: a pooled
+    // one stays leased until every frame taken from it has been released
+    public List<Message> unbatch() throws IOException {
+        ByteBuffer p = payloadBuffer();
+        if (p.remaining() < 4)
+            throw new IOException("Truncated batch");
+        int count = p.getInt();
+        if (count < 0 || count > p.remaining() / 8)
+            throw new IOException("Invalid batch count: " + count);
+
+        List<Message> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            frames.add(decode(p));
+        }
+        if (p.hasRemaining())
+            throw new IOException("Trailing bytes after batch");
+
+        PooledBuffer l = lease;
+        if (l != null) {
+            for (Message m : frames) {
+                l.retain();
+                m.lease = l;
+            }
+        }
+        release();
+        return frames;
     }
 
     public static Message unpack(byte[] data) {
@@ -86,9 +268,43 @@ public class Message {
                 buf.position(0);
             }
 
+            Message m = decodeBody(buf);
+            if (m != null) {
+                // callers of unpack expect an independent payload array
+                m.setPayload(m.payloadBytes());
+            }
+            return m;
+
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Message decodeBody(ByteBuffer buf) {
+        try {
+            Message m = decodeHeader(buf);
+            if (m == null || m.wirePayloadLength > buf.remaining())
+                return null;
+
+            ByteBuffer slice = buf.slice();
+            slice.limit(m.wirePayloadLength);
+            buf.position(buf.position() + m.wirePayloadLength);
+            m.setPayload(slice);
+
+            return m;
+
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // parses everything between the length prefix and the payload bytes; null when buf ends
+    // before the header does
+    static Message decodeHeader(ByteBuffer buf) throws IOException {
+        try {
             int magicInt = buf.getInt();
             if (magicInt != MAGIC_INT)
-                return null;
+                throw new IOException("Bad magic");
 
             Message m = new Message();
             m.magic = MAGIC_STR;
@@ -96,20 +312,18 @@ public class Message {
             m.version = buf.getShort() & 0xFFFF;
             m.messageType = buf.get();
             m.timestamp = buf.getLong();
+            if (m.version >= VERSION_REQUEST_ID)
+                m.requestId = buf.getLong();
 
             m.studentId = readString(buf);
             m.sender = readString(buf);
 
             int payloadLen = buf.getInt();
-            if (payloadLen < 0 || payloadLen > buf.remaining())
-                return null;
-
-            m.payload = new byte[payloadLen];
-            buf.get(m.payload);
-
+            if (payloadLen < 0)
+                throw new IOException("Invalid payload length: " + payloadLen);
+            m.wirePayloadLength = payloadLen;
             return m;
-
-        } catch (Exception e) {
+        } catch (BufferUnderflowException e) {
             return null;
         }
     }
@@ -122,12 +336,36 @@ public class Message {
         return unpack(data);
     }
 
+    private static final byte[] EMPTY = new byte[0];
+
     private static byte[] encode(String s) {
         if (s == null)
-            return new byte[0];
+            return EMPTY;
         return s.getBytes(StandardCharsets.UTF_8);
     }
 
+    private static int utf8Length(String s) {
+        if (s == null)
+            return 0;
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                n++; // unpaired surrogates encode as '?'
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
     private static void putWithLength(ByteBuffer buf, byte[] b) {
         if (b == null)
             b = new byte[0];
@@ -135,12 +373,10 @@ public class Message {
         buf.put(b);
     }
 
-    private static String readString(ByteBuffer buf) throws IOException {
-        if (buf.remaining() < 2)
-            throw new IOException();
+    private static String readString(ByteBuffer buf) {
         int len = buf.getShort() & 0xFFFF;
         if (len > buf.remaining())
-            throw new IOException();
+            throw new BufferUnderflowException();
         byte[] b = new byte[len];
         buf.get(b);
         return new String(b, StandardCharsets.UTF_8);
@@ -0,0 +1,158 @@
+package pdc;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+// named counters, gauges and histograms. Hot paths look their instruments up once and keep them
+// in fields: an update is then a LongAdder or bucket increment with no lock and no map lookup.
+// Gauges are only read when a snapshot is taken. The shared registry holds process-wide numbers
+// such as RPC traffic; a Master or Worker keeps its own, so several in one JVM do not mix
+public final class Metrics {
+
+    private static final Metrics SHARED = new Metrics();
+
+    // one timer thread runs every periodic dump; a dump is a snapshot and a string
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    // last failure recorded under each error counter, for exceptions that are otherwise survived
+    private final ConcurrentHashMap<String, String> lastErrors = new ConcurrentHashMap<>();
+
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    // read at snapshot time; replaces any gauge of the same name
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // counts a failure that was handled rather than thrown, and keeps its description
+    public void error(String name, Throwable cause) {
+        counter(name).inc();
+        lastErrors.put(name, String.valueOf(cause));
+    }
+
+    // drops every instrument whose name starts with prefix, e.g. a departed worker's
+    public void removeAll(String prefix) {
+        counters.keySet().removeIf(n -> n.startsWith(prefix));
+        histograms.keySet().removeIf(n -> n.startsWith(prefix));
+        gauges.keySet().removeIf(n -> n.startsWith(prefix));
+        lastErrors.keySet().removeIf(n -> n.startsWith(prefix));
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Long> c = new TreeMap<>();
+        counters.forEach((n, v) -> c.put(n, v.get()));
+        Map<String, Long> g = new TreeMap<>();
+        gauges.forEach((n, v) -> {
+            try {
+                g.put(n, v.getAsLong());
+            } catch (RuntimeException e) {
+                // a gauge over something already torn down; leave it out
+            }
+        });
+        Map<String, Histogram.Snapshot> h = new TreeMap<>();
+        histograms.forEach((n, v) -> h.put(n, v.snapshot()));
+        return new Snapshot(System.currentTimeMillis(), c, g, h, new TreeMap<>(lastErrors));
+    }
+
+    // hands a text snapshot to out every period until the returned future is cancelled
+    public ScheduledFuture<?> dumpEvery(long period, TimeUnit unit, Consumer<String> out) {
+        if (period <= 0)
+            throw new IllegalArgumentException("period must be positive");
+        Counter failed = counter("metrics.dump.failed");
+        return TIMER.scheduleAtFixedRate(() -> {
+            try {
+                out.accept(snapshot().toString());
+            } catch (RuntimeException e) {
+                // a throwing task would never run again; count it and keep dumping
+                failed.inc();
+            }
+        }, period, period, unit);
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread th = new Thread(r, "metrics-dump");
+            th.setDaemon(true);
+            return th;
+        });
+        t.setRemoveOnCancelPolicy(true);
+        return t;
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // every instrument at one moment, sorted by name
+    public static final class Snapshot {
+        public final long takenAtMillis;
+        public final Map<String, Long> counters;
+        public final Map<String, Long> gauges;
+        public final Map<String, Histogram.Snapshot> histograms;
+        public final Map<String, String> lastErrors;
+
+        Snapshot(long takenAtMillis, Map<String, Long> counters, Map<String, Long> gauges,
+                Map<String, Histogram.Snapshot> histograms, Map<String, String> lastErrors) {
+            this.takenAtMillis = takenAtMillis;
+            this.counters = Collections.unmodifiableMap(counters);
+            this.gauges = Collections.unmodifiableMap(gauges);
+            this.histograms = Collections.unmodifiableMap(histograms);
+            this.lastErrors = Collections.unmodifiableMap(lastErrors);
+        }
+
+        // 0 for a counter nothing has created yet
+        public long counter(String name) {
+            Long v = counters.get(name);
+            return (v == null) ? 0 : v;
+        }
+
+        public Histogram.Snapshot histogram(String name) {
+            return histograms.get(name);
+        }
+
+        // one "name value" line per instrument; histograms list count, mean and percentiles
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("# metrics at ").append(takenAtMillis).append('\n');
+            counters.forEach((n, v) -> sb.append(n).append(' ').append(v).append('\n'));
+            gauges.forEach((n, v) -> sb.append(n).append(' ').append(v).append('\n'));
+            histograms.forEach((n, v) -> sb.append(n).append(' ').append(v).append('\n'));
+            lastErrors.forEach((n, v) -> sb.append(n).append(".last ").append(v).append('\n'));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package pdc;
+
+public enum MultiplyStrategy {
+    // plain i-k-j loops over the jagged rows
+    IKJ,
+    // i-k-j over cache-sized k x j tiles so the B tile stays resident while a row strip streams past
+    TILED,
+    // TILED, with each B tile and C row segment copied into scratch rows the JIT can vectorize over
+    PACKED,
+    // PACKED, with the inner loop on the Vector API where the runtime has it; see TileKernels
+    SIMD
+}
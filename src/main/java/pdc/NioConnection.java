@@ -0,0 +1,163 @@
+package pdc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// one accepted channel on a NioServer event loop. write() may be called from any thread: frames
+// are queued and flushed by the loop, and a writer that gets too far ahead waits for the drain
+public final class NioConnection implements RpcClient.Transport {
+
+    // stop reading from (and block foreign writers to) a peer once this much output is queued
+    static final long HIGH_WATER = 8L * 1024 * 1024;
+    static final long LOW_WATER = 2L * 1024 * 1024;
+
+    final SocketChannel channel;
+    final FrameDecoder decoder = new FrameDecoder();
+    private final NioServer.EventLoop loop;
+    private final ConcurrentLinkedQueue<Frame> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Object drained = new Object();
+
+    SelectionKey key;
+    private volatile boolean open = true;
+    private volatile Object attachment;
+
+    NioConnection(SocketChannel channel, NioServer.EventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    public Object attachment() {
+        return attachment;
+    }
+
+    public void attach(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    @Override
+    public void write(Message msg) throws IOException {
+        if (!open)
+            throw new IOException("Connection closed");
+
+        Frame frame = Frame.of(msg);
+        long bytes = frame.bytes();
+        RPC.countSent(msg.messageType, bytes);
+        outbound.add(frame);
+        queuedBytes.addAndGet(bytes);
+        loop.requestFlush(this);
+
+        // the loop thread must never wait on itself; everyone else is held at the high-water mark
+        if (!loop.inLoop())
+            awaitDrain();
+    }
+
+    @Override
+    public void close() {
+        loop.requestClose(this, null);
+    }
+
+    private void awaitDrain() throws IOException {
+        synchronized (drained) {
+            while (open && queuedBytes.get() > HIGH_WATER) {
+                try {
+                    drained.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the peer to drain");
+                }
+            }
+        }
+        if (!open)
+            throw new IOException("Connection closed");
+    }
+
+    // loop thread only: writes as much as the socket takes; true when everything went out
+    boolean flush() throws IOException {
+        Frame head;
+        while ((head = outbound.peek()) != null) {
+            long n = channel.write(head.buffers);
+            if (n > 0)
+                released(n);
+            if (head.buffers[head.buffers.length - 1].hasRemaining())
+                return false;
+            outbound.poll();
+            head.lease.release();
+        }
+        return true;
+    }
+
+    boolean overHighWater() {
+        return queuedBytes.get() > HIGH_WATER;
+    }
+
+    boolean underLowWater() {
+        return queuedBytes.get() <= LOW_WATER;
+    }
+
+    // loop thread only
+    void markClosed() {
+        open = false;
+        Frame f;
+        while ((f = outbound.poll()) != null) {
+            f.lease.release();
+        }
+        queuedBytes.set(0);
+        synchronized (drained) {
+            drained.notifyAll();
+        }
+    }
+
+    private void released(long n) {
+        long left = queuedBytes.addAndGet(-n);
+        if (left <= LOW_WATER) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+    }
+
+    // a queued frame and the pooled buffer it was encoded into; small frames are header and payload
+    // in that one buffer, larger ones a pooled header followed by the payload itself, uncopied
+    private static final class Frame {
+        final ByteBuffer[] buffers;
+        final PooledBuffer lease;
+
+        private Frame(ByteBuffer[] buffers, PooledBuffer lease) {
+            this.buffers = buffers;
+            this.lease = lease;
+        }
+
+        static Frame of(Message msg) {
+            BufferPool pool = RPC.pool();
+            if (msg.payloadLength() <= RPC.COALESCE_LIMIT) {
+                PooledBuffer whole = msg.encodePooled(pool);
+                return new Frame(new ByteBuffer[] { whole.buffer() }, whole);
+            }
+            PooledBuffer header = pool.acquire(msg.headerLength());
+            msg.encodeHeader(header.buffer());
+            header.buffer().flip();
+            return new Frame(new ByteBuffer[] { header.buffer(), msg.payloadBuffer() }, header);
+        }
+
+        long bytes() {
+            long n = 0;
+            for (ByteBuffer b : buffers) {
+                n += b.remaining();
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package pdc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// non-blocking Message server: a handful of selector threads serve every connection. Frames are
+// decoded incrementally, writes that the socket only partly accepts resume on OP_WRITE, and a
+// peer whose replies are piling up is not read from until its output drains
+public final class NioServer {
+
+    public interface Handler {
+        // runs on the connection's event loop thread; keep it short
+        void onMessage(NioConnection connection, Message msg);
+
+        void onClose(NioConnection connection, Throwable cause);
+    }
+
+    private final Handler handler;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel server;
+
+    public NioServer(int eventLoops, Handler handler) throws IOException {
+        if (eventLoops <= 0)
+            eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.handler = handler;
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++)
+            loops[i] = new EventLoop(i);
+    }
+
+    public void bind(int port) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), RPC.ACCEPT_BACKLOG);
+        server.configureBlocking(false);
+
+        // loop 0 also accepts; accepted channels are spread round-robin over all loops
+        loops[0].register(server);
+        for (EventLoop loop : loops)
+            loop.start();
+    }
+
+    public int getPort() {
+        return (server == null) ? -1 : server.socket().getLocalPort();
+    }
+
+    public void close() {
+        try {
+            if (server != null)
+                server.close();
+        } catch (IOException ignored) {
+        }
+        for (EventLoop loop : loops)
+            loop.shutdown();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            loop.adopt(new NioConnection(ch, loop));
+        }
+    }
+
+    final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void register(ServerSocketChannel ch) throws IOException {
+            ch.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        void adopt(NioConnection conn) {
+            execute(() -> {
+                try {
+                    conn.key = conn.channel.register(selector, SelectionKey.OP_READ, conn);
+                    flush(conn);
+                } catch (IOException e) {
+                    closeConnection(conn, e);
+                }
+            });
+        }
+
+        void requestFlush(NioConnection conn) {
+            if (inLoop())
+                flush(conn);
+            else
+                execute(() -> flush(conn));
+        }
+
+        void requestClose(NioConnection conn, Throwable cause) {
+            if (inLoop())
+                closeConnection(conn, cause);
+            else
+                execute(() -> closeConnection(conn, cause));
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        private void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid())
+                            continue;
+
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+
+                        NioConnection conn = (NioConnection) key.attachment();
+                        if (key.isWritable())
+                            flush(conn);
+                        if (key.isValid() && key.isReadable())
+                            read(conn);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                running = false;
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof NioConnection)
+                        closeConnection((NioConnection) key.attachment(), null);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void read(NioConnection conn) {
+            try {
+                int n;
+                while ((n = conn.channel.read(conn.decoder.readBuffer())) > 0) {
+                    Message msg;
+                    while ((msg = conn.decoder.next()) != null) {
+                        handler.onMessage(conn, msg);
+                        if (!conn.isOpen())
+                            return;
+                    }
+                    // replies are backing up: leave the rest in the kernel until the peer reads
+                    if (conn.overHighWater()) {
+                        interest(conn, SelectionKey.OP_READ, false);
+                        return;
+                    }
+                }
+                if (n < 0)
+                    closeConnection(conn, null);
+            } catch (IOException | RuntimeException e) {
+                closeConnection(conn, e);
+            }
+        }
+
+        private void flush(NioConnection conn) {
+            if (conn.key == null || !conn.key.isValid())
+                return;
+            try {
+                boolean done = conn.flush();
+                interest(conn, SelectionKey.OP_WRITE, !done);
+                if (conn.underLowWater())
+                    interest(conn, SelectionKey.OP_READ, true);
+            } catch (IOException e) {
+                closeConnection(conn, e);
+            }
+        }
+
+        private void interest(NioConnection conn, int op, boolean on) {
+            SelectionKey key = conn.key;
+            if (key == null || !key.isValid())
+                return;
+            int ops = key.interestOps();
+            key.interestOps(on ? (ops | op) : (ops & ~op));
+        }
+
+        private void closeConnection(NioConnection conn, Throwable cause) {
+            if (!conn.isOpen())
+                return;
+            conn.markClosed();
+            if (conn.key != null)
+                conn.key.cancel();
+            try {
+                conn.channel.close();
+            } catch (IOException ignored) {
+            }
+            handler.onClose(conn, cause);
+        }
+    }
+}
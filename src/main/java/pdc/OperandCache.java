@@ -0,0 +1,86 @@
+package pdc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// worker-side store of operands sent with TYPE_OPERAND, keyed by their content id. Once their
+// ints pass the byte budget the least recently used ones are dropped; the master resends an
+// operand when a task refers to one that is gone
+final class OperandCache {
+
+    private final LinkedHashMap<Long, Matrix> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long budgetBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    OperandCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    synchronized Matrix get(long id) {
+        Matrix m = entries.get(id);
+        if (m == null)
+            misses++;
+        else
+            hits++;
+        return m;
+    }
+
+    // an operand larger than the whole budget is not kept at all
+    synchronized void put(long id, Matrix m) {
+        long size = sizeOf(m);
+        if (size > budgetBytes)
+            return;
+        Matrix old = entries.put(id, m);
+        if (old != null)
+            bytes -= sizeOf(old);
+        bytes += size;
+        evict();
+    }
+
+    synchronized void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        evict();
+    }
+
+    synchronized long budget() {
+        return budgetBytes;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    // oldest first; access order puts the entry just stored last
+    private void evict() {
+        Iterator<Map.Entry<Long, Matrix>> it = entries.entrySet().iterator();
+        while (bytes > budgetBytes && it.hasNext()) {
+            bytes -= sizeOf(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static long sizeOf(Matrix m) {
+        return 4L * m.rows() * m.cols();
+    }
+}
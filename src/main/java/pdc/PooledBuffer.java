@@ -0,0 +1,50 @@
+package pdc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a buffer on loan from a BufferPool; goes back when the last holder releases it
+public final class PooledBuffer {
+
+    private final BufferPool pool;
+    private final ByteBuffer buf;
+    private final int sizeClass;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    PooledBuffer(BufferPool pool, ByteBuffer buf, int sizeClass) {
+        this.pool = pool;
+        this.buf = buf;
+        this.sizeClass = sizeClass;
+    }
+
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+    public PooledBuffer retain() {
+        int r;
+        do {
+            r = refs.get();
+            if (r <= 0)
+                throw new IllegalStateException("Buffer already released");
+        } while (!refs.compareAndSet(r, r + 1));
+        return this;
+    }
+
+    // true when this call handed the buffer back to the pool
+    public boolean release() {
+        int r = refs.decrementAndGet();
+        if (r < 0) {
+            refs.incrementAndGet();
+            throw new IllegalStateException("Buffer released too many times");
+        }
+        if (r > 0)
+            return false;
+        pool.recycle(buf, sizeClass);
+        return true;
+    }
+
+    public int refCount() {
+        return refs.get();
+    }
+}
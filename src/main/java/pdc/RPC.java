@@ -6,54 +6,312 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 public final class RPC {
 
+    // payloads up to this size are merged with the header into a single write
+    static final int COALESCE_LIMIT = 8 * 1024;
+    // first read of a frame; covers the header of any message with ordinary ids
+    static final int HEADER_CHUNK = 512;
+    // pooled staging buffer for channel reads and writes of heap payloads
+    static final int STAGE_CHUNK = 256 * 1024;
+    // pending connections the kernel queues for a listening socket; the default of 50 drops bursts
+    // of connects, which then wait out a SYN retry of a second or more
+    static final int ACCEPT_BACKLOG = 4096;
+
+    private static final BufferPool POOL = BufferPool.shared();
+
+    // frames and bytes on the wire by message type, in the shared registry; a batch counts once,
+    // as a TYPE_BATCH frame, on both ends
+    private static final Metrics.Counter[] SENT_FRAMES = counters("rpc.sent.", ".frames");
+    private static final Metrics.Counter[] SENT_BYTES = counters("rpc.sent.", ".bytes");
+    private static final Metrics.Counter[] RECEIVED_FRAMES = counters("rpc.received.", ".frames");
+    private static final Metrics.Counter[] RECEIVED_BYTES = counters("rpc.received.", ".bytes");
+
+    static {
+        Metrics m = Metrics.shared();
+        m.gauge("rpc.pool.hits", () -> POOL.stats().hits);
+        m.gauge("rpc.pool.misses", () -> POOL.stats().misses);
+        m.gauge("rpc.pool.bytes_outstanding", () -> POOL.stats().bytesOutstanding);
+        m.gauge("rpc.pool.bytes_idle", () -> POOL.stats().bytesIdle);
+    }
+
     private RPC() {
     }
 
     public static void send(Socket socket, Message msg) throws IOException {
+        if (socket.getChannel() != null) {
+            send(socket.getChannel(), msg);
+            return;
+        }
+
         OutputStream out = socket.getOutputStream();
-        byte[] frame = msg.serialize();
-        out.write(frame);
+        ByteBuffer header = msg.encodeHeader();
+        ByteBuffer payload = msg.payloadBuffer();
+        countSent(msg.messageType, header.remaining() + payload.remaining());
+
+        if (payload.remaining() <= COALESCE_LIMIT || !payload.hasArray()) {
+            byte[] frame = new byte[header.remaining() + payload.remaining()];
+            ByteBuffer.wrap(frame).put(header).put(payload);
+            out.write(frame);
+        } else {
+            // large payloads go out straight from their own array; only the header is new
+            out.write(header.array(), header.arrayOffset() + header.position(), header.remaining());
+            out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
         out.flush();
     }
 
+    // the frame is staged through a pooled direct buffer: a small frame goes out in one write, a
+    // large heap payload in STAGE_CHUNK pieces. Handing heap buffers to the channel directly would
+    // make the JDK allocate a temporary direct buffer the size of the frame. Direct payloads (e.g.
+    // a pooled receive being forwarded) follow the header in a gathering write instead
+    public static void send(SocketChannel channel, Message msg) throws IOException {
+        ByteBuffer payload = msg.payloadBuffer();
+        int headerLen = msg.headerLength();
+        countSent(msg.messageType, headerLen + payload.remaining());
+
+        if (payload.isDirect()) {
+            PooledBuffer header = POOL.acquire(headerLen);
+            try {
+                msg.encodeHeader(header.buffer());
+                header.buffer().flip();
+                ByteBuffer[] frame = { header.buffer(), payload };
+                while (frame[0].hasRemaining() || payload.hasRemaining()) {
+                    channel.write(frame);
+                }
+            } finally {
+                header.release();
+            }
+            return;
+        }
+
+        PooledBuffer stage = POOL.acquire(Math.max(headerLen, Math.min(headerLen + payload.remaining(), STAGE_CHUNK)));
+        try {
+            ByteBuffer buf = stage.buffer();
+            buf.clear();
+            msg.encodeHeader(buf);
+            do {
+                int n = Math.min(buf.remaining(), payload.remaining());
+                int limit = payload.limit();
+                payload.limit(payload.position() + n);
+                buf.put(payload);
+                payload.limit(limit);
+
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                buf.clear();
+            } while (payload.hasRemaining());
+        } finally {
+            stage.release();
+        }
+    }
+
+    // bytes that are already one or more encoded frames; the caller counts them
+    static void sendRaw(Socket socket, ByteBuffer frames) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel != null) {
+            while (frames.hasRemaining()) {
+                channel.write(frames);
+            }
+            return;
+        }
+        byte[] copy = new byte[frames.remaining()];
+        frames.get(copy);
+        OutputStream out = socket.getOutputStream();
+        out.write(copy);
+        out.flush();
+    }
+
+    // the header is read in one small chunk and the payload straight into its own array, so a
+    // large frame is copied once, from the socket into the message's payload array
     public static Message receive(Socket socket) throws IOException {
+        if (socket.getChannel() != null)
+            return receive(socket.getChannel());
+
         InputStream in = socket.getInputStream();
 
-        byte[] lenBytes = readFully(in, 4);
-        int frameLen = ByteBuffer.wrap(lenBytes).getInt();
+        byte[] lenBytes = new byte[4];
+        readFully(in, lenBytes, 0, 4);
+        int frameLen = checkFrameLength(ByteBuffer.wrap(lenBytes).getInt());
 
-        if (frameLen <= 0)
-            throw new IOException("Invalid frame length: " + frameLen);
+        byte[] head = new byte[Math.min(frameLen, HEADER_CHUNK)];
+        readFully(in, head, 0, head.length);
+        ByteBuffer hb = ByteBuffer.wrap(head);
+
+        Message m = Message.decodeHeader(hb);
+        if (m == null) {
+            // header longer than one chunk (very long ids): fall back to reading the whole frame
+            byte[] full = new byte[frameLen];
+            System.arraycopy(head, 0, full, 0, head.length);
+            readFully(in, full, head.length, frameLen - head.length);
+            hb = ByteBuffer.wrap(full);
+            m = Message.decodeHeader(hb);
+            if (m == null)
+                throw new IOException("Failed to decode message");
+        }
+
+        int have = hb.remaining();
+        byte[] payload = startPayload(m, frameLen, hb);
+        readFully(in, payload, have, payload.length - have);
+        m.setPayload(payload);
+        countReceived(m.messageType, 4 + frameLen);
+        return m;
+    }
+
+    // reads through a pooled staging buffer into a payload array of exactly the frame's size; the
+    // array is the only allocation that outlives the call
+    public static Message receive(SocketChannel channel) throws IOException {
+        PooledBuffer stage = POOL.acquire(STAGE_CHUNK);
+        try {
+            ByteBuffer buf = stage.buffer();
+            buf.limit(4);
+            readFully(channel, buf);
+            int frameLen = checkFrameLength(buf.getInt(0));
 
-        byte[] body = readFully(in, frameLen);
-        byte[] full = new byte[4 + frameLen];
+            buf.clear().limit(Math.min(frameLen, HEADER_CHUNK));
+            readFully(channel, buf);
+            buf.flip();
 
-        System.arraycopy(lenBytes, 0, full, 0, 4);
-        System.arraycopy(body, 0, full, 4, frameLen);
+            Message m = Message.decodeHeader(buf);
+            if (m == null) {
+                // header longer than one chunk: read the whole frame through its own buffer
+                PooledBuffer full = POOL.acquire(frameLen);
+                try {
+                    ByteBuffer fb = full.buffer();
+                    buf.rewind();
+                    fb.put(buf);
+                    readFully(channel, fb);
+                    fb.flip();
+                    m = Message.decodeHeader(fb);
+                    if (m == null)
+                        throw new IOException("Failed to decode message");
+                    byte[] payload = startPayload(m, frameLen, fb);
+                    m.setPayload(payload);
+                    countReceived(m.messageType, 4 + frameLen);
+                    return m;
+                } finally {
+                    full.release();
+                }
+            }
 
-        Message m = Message.deserialize(full);
-        if (m == null)
-            throw new IOException("Failed to decode message");
+            int have = buf.remaining();
+            byte[] payload = startPayload(m, frameLen, buf);
+            for (int off = have; off < payload.length;) {
+                buf.clear().limit(Math.min(buf.capacity(), payload.length - off));
+                readFully(channel, buf);
+                buf.flip();
+                int n = buf.remaining();
+                buf.get(payload, off, n);
+                off += n;
+            }
+            m.setPayload(payload);
+            countReceived(m.messageType, 4 + frameLen);
+            return m;
+        } finally {
+            stage.release();
+        }
+    }
+
+    // the whole frame lands in one pooled buffer and the payload stays there: nothing is allocated
+    // per frame once the pool is warm. The caller must release() the message when done with it
+    public static Message receivePooled(SocketChannel channel) throws IOException {
+        PooledBuffer len = POOL.acquire(4);
+        int frameLen;
+        try {
+            readFully(channel, len.buffer());
+            frameLen = checkFrameLength(len.buffer().getInt(0));
+        } finally {
+            len.release();
+        }
+
+        PooledBuffer frame = POOL.acquire(4 + frameLen);
+        try {
+            ByteBuffer buf = frame.buffer();
+            buf.putInt(frameLen);
+            readFully(channel, buf);
+            buf.flip();
+        } catch (IOException | RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        Message m = Message.decode(frame);
+        countReceived(m.messageType, 4 + frameLen);
         return m;
     }
 
+    // pooled when the socket has a channel; otherwise the message owns a plain payload array
+    public static Message receivePooled(Socket socket) throws IOException {
+        if (socket.getChannel() != null)
+            return receivePooled(socket.getChannel());
+        return receive(socket);
+    }
+
+    public static BufferPool pool() {
+        return POOL;
+    }
+
     public static Message call(Socket socket, Message request) throws IOException {
         send(socket, request);
         return receive(socket);
     }
 
-    private static byte[] readFully(InputStream in, int n) throws IOException {
-        byte[] buf = new byte[n];
-        int off = 0;
-        while (off < n) {
-            int r = in.read(buf, off, n - off);
+    static void countSent(byte type, long bytes) {
+        int slot = slot(type);
+        SENT_FRAMES[slot].inc();
+        SENT_BYTES[slot].add(bytes);
+    }
+
+    static void countReceived(byte type, long bytes) {
+        int slot = slot(type);
+        RECEIVED_FRAMES[slot].inc();
+        RECEIVED_BYTES[slot].add(bytes);
+    }
+
+    private static int slot(byte type) {
+        return (type > 0 && type < Message.TYPE_COUNT) ? type : 0;
+    }
+
+    private static Metrics.Counter[] counters(String prefix, String suffix) {
+        Metrics.Counter[] c = new Metrics.Counter[Message.TYPE_COUNT];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = Metrics.shared().counter(prefix + Message.typeName(i) + suffix);
+        }
+        return c;
+    }
+
+    static int checkFrameLength(int frameLen) throws IOException {
+        if (frameLen <= 0 || frameLen > FrameDecoder.MAX_FRAME)
+            throw new IOException("Invalid frame length: " + frameLen);
+        return frameLen;
+    }
+
+    // allocates the payload array and moves in the payload bytes that arrived with the header
+    private static byte[] startPayload(Message m, int frameLen, ByteBuffer head) throws IOException {
+        if (m.wirePayloadLength != frameLen - head.position())
+            throw new IOException("Payload length does not match frame length");
+        byte[] payload = new byte[m.wirePayloadLength];
+        head.get(payload, 0, head.remaining());
+        return payload;
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int off, int n) throws IOException {
+        int end = off + n;
+        while (off < end) {
+            int r = in.read(buf, off, end - off);
             if (r < 0)
                 throw new EOFException("Stream closed");
             off += r;
         }
-        return buf;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0)
+                throw new EOFException("Stream closed");
+        }
     }
 }
@@ -0,0 +1,8 @@
+package pdc;
+
+// hears about output rows of a streaming multiply as they become final: every column of rows
+// [rowStart, rowEnd) has arrived. Called from the threads that gather results, possibly several
+// at once, so implementations must be thread-safe and quick
+public interface RowRangeListener {
+    void rowsCompleted(int rowStart, int rowEnd);
+}
@@ -0,0 +1,62 @@
+package pdc;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// completed row ranges of a Master.multiplyStreaming job, as full-width blocks in the order they
+// finished. hasNext() blocks until another range is in or the job has ended, and throws if the
+// job failed; once it returns false, result() holds the whole product
+public final class RowStream implements Iterator<Block>, RowRangeListener {
+
+    private static final Block END = new Block(0, 0, 0, 0);
+
+    private final Matrix result;
+    private final LinkedBlockingQueue<Block> ranges = new LinkedBlockingQueue<>();
+    private volatile String failure;
+    private Block next;
+
+    RowStream(Matrix result) {
+        this.result = result;
+    }
+
+    public Matrix result() {
+        return result;
+    }
+
+    @Override
+    public void rowsCompleted(int rowStart, int rowEnd) {
+        ranges.add(new Block(rowStart, rowEnd, 0, result.cols()));
+    }
+
+    void finish(String failure) {
+        this.failure = failure;
+        ranges.add(END);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = ranges.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for rows");
+            }
+        }
+        if (next != END)
+            return true;
+        if (failure != null)
+            throw new IllegalStateException(failure);
+        return false;
+    }
+
+    @Override
+    public Block next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Block range = next;
+        next = null;
+        return range;
+    }
+}
@@ -0,0 +1,206 @@
+package pdc;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// many concurrent calls over one long-lived connection: each request gets a requestId, the reply
+// carrying the same id completes its future, and replies may arrive in any order
+public final class RpcClient implements Runnable {
+
+    public interface Handler {
+        // frames that do not answer an outstanding call (requestId 0 or unknown)
+        void onMessage(RpcClient client, Message msg);
+
+        default void onClose(RpcClient client, Throwable cause) {
+        }
+    }
+
+    // where outgoing frames go; a blocking socket or a selector-driven channel
+    public interface Transport {
+        void write(Message msg) throws IOException;
+
+        void close();
+    }
+
+    private final Transport transport;
+    private final Socket socket;
+    private final Handler handler;
+    private final ConcurrentHashMap<Long, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private volatile boolean open = true;
+    // socket reader hands out pooled frames; whoever ends up with a message must release() it
+    private volatile boolean pooledReceive;
+
+    public RpcClient(Socket socket, Handler handler) {
+        this(socket, new SocketTransport(socket), handler);
+    }
+
+    // socket read by run(), written through transport, e.g. a CoalescingWriter on the same socket
+    public RpcClient(Socket socket, Transport transport, Handler handler) {
+        this.socket = socket;
+        this.transport = transport;
+        this.handler = handler;
+    }
+
+    // inbound frames are pushed in by the owner of the transport through deliver()/closed()
+    public RpcClient(Transport transport, Handler handler) {
+        this.socket = null;
+        this.transport = transport;
+        this.handler = handler;
+    }
+
+    // connects and starts the reader on its own daemon thread, virtual under -Dpdc.virtualThreads
+    public static RpcClient connect(String host, int port, Handler handler) throws IOException {
+        RpcClient client = new RpcClient(new Socket(host, port), handler);
+        Threads.start("rpc-reader-" + host + ":" + port, Threads.virtualByDefault(), client);
+        return client;
+    }
+
+    public CompletableFuture<Message> call(Message request) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        if (!open) {
+            future.completeExceptionally(new IOException("Connection closed"));
+            return future;
+        }
+
+        long id = ids.incrementAndGet();
+        request.requestId = id;
+        pending.put(id, future);
+
+        try {
+            send(request);
+        } catch (IOException e) {
+            pending.remove(id);
+            future.completeExceptionally(e);
+            close(e);
+        }
+
+        // the reader may have shut down between the open check and put(); make sure we are not orphaned
+        if (!open && pending.remove(id) != null)
+            future.completeExceptionally(new IOException("Connection closed"));
+        return future;
+    }
+
+    // fire-and-forget frame; replies are written this way with the caller's requestId already set
+    public void send(Message msg) throws IOException {
+        transport.write(msg);
+    }
+
+    public void setPooledReceive(boolean pooledReceive) {
+        this.pooledReceive = pooledReceive;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public int outstanding() {
+        return pending.size();
+    }
+
+    // batches are unpacked here, so handlers and callers only ever see the frames inside
+    public void deliver(Message msg) {
+        if (msg.messageType == Message.TYPE_BATCH) {
+            List<Message> frames;
+            try {
+                frames = msg.unbatch();
+            } catch (IOException e) {
+                msg.release();
+                close(e);
+                return;
+            }
+            for (Message m : frames) {
+                deliver(m);
+            }
+            return;
+        }
+
+        CompletableFuture<Message> future = (msg.requestId == 0) ? null : pending.remove(msg.requestId);
+        if (future != null) {
+            if (!future.complete(msg))
+                msg.release();
+        } else
+            handler.onMessage(this, msg);
+    }
+
+    // reader loop for socket-backed clients; runs until the socket fails or is closed
+    @Override
+    public void run() {
+        if (socket == null)
+            throw new IllegalStateException("Inbound frames are delivered by the transport");
+
+        Throwable cause = null;
+        try {
+            while (open) {
+                deliver(pooledReceive ? RPC.receivePooled(socket) : RPC.receive(socket));
+            }
+        } catch (IOException | RuntimeException e) {
+            cause = e;
+        } finally {
+            close(cause);
+        }
+    }
+
+    public void close() {
+        close(null);
+    }
+
+    // called by the transport owner when the peer went away
+    public void closed(Throwable cause) {
+        close(cause);
+    }
+
+    private void close(Throwable cause) {
+        boolean first;
+        synchronized (this) {
+            first = open;
+            open = false;
+        }
+        if (!first)
+            return;
+
+        transport.close();
+
+        IOException closed = new IOException("Connection closed", cause);
+        for (Long id : pending.keySet()) {
+            CompletableFuture<Message> future = pending.remove(id);
+            if (future != null)
+                future.completeExceptionally(closed);
+        }
+        handler.onClose(this, cause);
+    }
+
+    private static final class SocketTransport implements Transport {
+        private final Socket socket;
+        // a lock rather than synchronized: a virtual thread blocked in a write while holding a
+        // monitor pins its carrier thread
+        private final ReentrantLock lock = new ReentrantLock();
+
+        SocketTransport(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void write(Message msg) throws IOException {
+            lock.lock();
+            try {
+                RPC.send(socket, msg);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package pdc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// stock BlockScheduler policies
+public final class Schedulers {
+
+    private Schedulers() {
+    }
+
+    // takes turns, ignoring load; what the master always did
+    public static BlockScheduler roundRobin() {
+        return new RoundRobin();
+    }
+
+    // the worker with the fewest unanswered blocks, so queues stay even across concurrent jobs
+    public static BlockScheduler leastOutstanding() {
+        return new LeastOutstanding();
+    }
+
+    // expected finish time from each worker's reported throughput: fast workers get the next
+    // block, deeper queues and whole blocks, slow ones shallower queues and slices
+    public static BlockScheduler throughputWeighted() {
+        return new ThroughputWeighted();
+    }
+
+    private static final class RoundRobin implements BlockScheduler {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public int pick(List<? extends Load> ready) {
+            if (ready.isEmpty())
+                return -1;
+            return Math.floorMod(next.getAndIncrement(), ready.size());
+        }
+    }
+
+    private static final class LeastOutstanding implements BlockScheduler {
+        @Override
+        public <W extends Load> List<W> choose(List<W> alive, int workerCount) {
+            List<W> sorted = new ArrayList<>(alive);
+            sorted.sort(Comparator.comparingInt(Load::outstanding));
+            return sorted.subList(0, Math.min(workerCount, sorted.size()));
+        }
+
+        @Override
+        public int pick(List<? extends Load> ready) {
+            int best = -1;
+            for (int i = 0; i < ready.size(); i++) {
+                if (best < 0 || ready.get(i).outstanding() < ready.get(best).outstanding())
+                    best = i;
+            }
+            return best;
+        }
+    }
+
+    private static final class ThroughputWeighted implements BlockScheduler {
+        // a worker below this fraction of the fastest one gets a smaller share than a whole block
+        static final double MIN_SHARE = 0.125;
+
+        @Override
+        public <W extends Load> List<W> choose(List<W> alive, int workerCount) {
+            double guess = meanThroughput(alive);
+            List<W> sorted = new ArrayList<>(alive);
+            sorted.sort(Comparator.comparingDouble((W w) -> -rate(w, guess)));
+            return sorted.subList(0, Math.min(workerCount, sorted.size()));
+        }
+
+        @Override
+        public int pick(List<? extends Load> ready) {
+            double guess = meanThroughput(ready);
+            int best = -1;
+            double bestFinish = Double.MAX_VALUE;
+            for (int i = 0; i < ready.size(); i++) {
+                Load w = ready.get(i);
+                double finish = (w.outstanding() + 1) / rate(w, guess);
+                if (finish < bestFinish) {
+                    best = i;
+                    bestFinish = finish;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public int depth(Load worker, List<? extends Load> all) {
+            return Math.max(1, (int) Math.round(worker.window() * relative(worker, all)));
+        }
+
+        @Override
+        public double share(Load worker, List<? extends Load> all) {
+            return Math.max(MIN_SHARE, relative(worker, all));
+        }
+
+        // worker's throughput over the fastest one's; 1 while either is unknown
+        private static double relative(Load worker, List<? extends Load> all) {
+            double mine = worker.throughput();
+            if (mine <= 0)
+                return 1.0;
+            double max = 0;
+            for (Load w : all) {
+                max = Math.max(max, w.throughput());
+            }
+            return Math.min(1.0, mine / max);
+        }
+
+        // workers that have not reported yet are assumed average, so they get tried early
+        private static double rate(Load w, double guess) {
+            double t = w.throughput();
+            return (t > 0) ? t : guess;
+        }
+
+        private static double meanThroughput(List<? extends Load> workers) {
+            double sum = 0;
+            int n = 0;
+            for (Load w : workers) {
+                if (w.throughput() > 0) {
+                    sum += w.throughput();
+                    n++;
+                }
+            }
+            return (n == 0) ? 1.0 : sum / n;
+        }
+    }
+}
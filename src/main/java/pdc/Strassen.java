@@ -0,0 +1,208 @@
+package pdc;
+
+import java.util.concurrent.RecursiveAction;
+
+// Strassen-Winograd: one level turns a multiply into seven half-size products and fifteen
+// additions instead of eight products, so the recursion costs O(n^2.81) rather than O(n^3).
+// Int arithmetic wraps, and the Winograd identities hold in any ring, so the result is bit for bit
+// the blocked kernel's. Recursion stops once a dimension is at or below the crossover, where the
+// kernel's cache behaviour beats saving another product. Odd dimensions are peeled: the even core
+// goes through the recursion and the last row, column and inner index are finished by the kernel
+final class Strassen {
+
+    static final int DEFAULT_CROSSOVER = 256;
+
+    private Strassen() {
+    }
+
+    // true when a x b is large enough in every dimension to be worth another level; a crossover
+    // <= 0 turns the recursion off
+    static boolean splits(Matrix a, Matrix b, int crossover) {
+        return crossover > 0 && a.rows() > crossover && a.cols() > crossover && b.cols() > crossover;
+    }
+
+    // c += a x b on this thread; c is normally freshly allocated, i.e. zero
+    static void multiply(Matrix a, Matrix b, Matrix c, int crossover) {
+        if (!splits(a, b, crossover)) {
+            MatrixKernels.multiplyRows(a, b, c, 0, a.rows());
+            return;
+        }
+        Level level = split(a, b);
+        Matrix[] products = new Matrix[7];
+        for (int i = 0; i < 7; i++) {
+            products[i] = Matrix.heap(level.n2, level.p2);
+            multiply(level.left[i], level.right[i], products[i], crossover);
+        }
+        level.combine(products, c);
+    }
+
+    // the same, with the seven products of each level forked on the pool's threads and the leaves
+    // split further by ForkJoinMultiply
+    static void parallelMultiply(Matrix a, Matrix b, Matrix c, int threads, int crossover) {
+        ForkJoinMultiply.pool(threads).invoke(new Product(a, b, c, crossover));
+    }
+
+    static Level split(Matrix a, Matrix b) {
+        return new Level(a, b);
+    }
+
+    // one level of the recursion: P[i] = left[i] x right[i] for the even core of a x b
+    static final class Level {
+        final Matrix a;
+        final Matrix b;
+        final int n2;
+        final int m2;
+        final int p2;
+        final Matrix[] left = new Matrix[7];
+        final Matrix[] right = new Matrix[7];
+
+        private Level(Matrix a, Matrix b) {
+            this.a = a;
+            this.b = b;
+            n2 = a.rows() / 2;
+            m2 = a.cols() / 2;
+            p2 = b.cols() / 2;
+
+            Matrix a11 = a.view(0, 0, n2, m2);
+            Matrix a12 = a.view(0, m2, n2, m2);
+            Matrix a21 = a.view(n2, 0, n2, m2);
+            Matrix a22 = a.view(n2, m2, n2, m2);
+            Matrix b11 = b.view(0, 0, m2, p2);
+            Matrix b12 = b.view(0, p2, m2, p2);
+            Matrix b21 = b.view(m2, 0, m2, p2);
+            Matrix b22 = b.view(m2, p2, m2, p2);
+
+            Matrix s1 = add(a21, a22);
+            Matrix s2 = sub(s1, a11);
+            Matrix s3 = sub(a11, a21);
+            Matrix s4 = sub(a12, s2);
+            Matrix t1 = sub(b12, b11);
+            Matrix t2 = sub(b22, t1);
+            Matrix t3 = sub(b22, b12);
+            Matrix t4 = sub(t2, b21);
+
+            set(0, a11, b11);
+            set(1, a12, b21);
+            set(2, s4, b22);
+            set(3, a22, t4);
+            set(4, s1, t1);
+            set(5, s2, t2);
+            set(6, s3, t3);
+        }
+
+        private void set(int i, Matrix l, Matrix r) {
+            left[i] = l;
+            right[i] = r;
+        }
+
+        // c += a x b from the seven products
+        void combine(Matrix[] products, Matrix c) {
+            Matrix u2 = add(products[0], products[5]);
+            Matrix u3 = add(u2, products[6]);
+            addInto(u2, products[4], u2); // u4
+
+            accumulate(c.view(0, 0, n2, p2), products[0], products[1], 1);
+            accumulate(c.view(0, p2, n2, p2), u2, products[2], 1);
+            accumulate(c.view(n2, 0, n2, p2), u3, products[3], -1);
+            accumulate(c.view(n2, p2, n2, p2), u3, products[4], 1);
+
+            int n = a.rows();
+            int m = a.cols();
+            int p = b.cols();
+            // last inner index for the core, then the last column and the last row in full
+            if (m > 2 * m2)
+                MatrixKernels.multiplyRows(a.view(0, m - 1, 2 * n2, 1), b.view(m - 1, 0, 1, 2 * p2),
+                        c.view(0, 0, 2 * n2, 2 * p2), 0, 2 * n2);
+            if (p > 2 * p2)
+                MatrixKernels.multiplyRows(a.view(0, 0, 2 * n2, m), b.view(0, p - 1, m, 1), c.view(0, p - 1, 2 * n2, 1),
+                        0, 2 * n2);
+            if (n > 2 * n2)
+                MatrixKernels.multiplyRows(a.view(n - 1, 0, 1, m), b, c.view(n - 1, 0, 1, p), 0, 1);
+        }
+    }
+
+    private static final class Product extends RecursiveAction {
+        private final Matrix a;
+        private final Matrix b;
+        private final Matrix c;
+        private final int crossover;
+
+        Product(Matrix a, Matrix b, Matrix c, int crossover) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.crossover = crossover;
+        }
+
+        @Override
+        protected void compute() {
+            if (!splits(a, b, crossover)) {
+                new ForkJoinMultiply.Quadrants(a, b, c).compute();
+                return;
+            }
+            Level level = split(a, b);
+            Matrix[] products = new Matrix[7];
+            Product[] tasks = new Product[7];
+            for (int i = 0; i < 7; i++) {
+                products[i] = Matrix.heap(level.n2, level.p2);
+                tasks[i] = new Product(level.left[i], level.right[i], products[i], crossover);
+            }
+            invokeAll(tasks);
+            level.combine(products, c);
+        }
+    }
+
+    static Matrix add(Matrix x, Matrix y) {
+        Matrix out = Matrix.heap(x.rows(), x.cols());
+        addInto(x, y, out);
+        return out;
+    }
+
+    static Matrix sub(Matrix x, Matrix y) {
+        Matrix out = Matrix.heap(x.rows(), x.cols());
+        int cols = x.cols();
+        int[] rx = new int[cols];
+        int[] ry = new int[cols];
+        for (int i = 0; i < x.rows(); i++) {
+            x.getRow(i, 0, rx, 0, cols);
+            y.getRow(i, 0, ry, 0, cols);
+            for (int j = 0; j < cols; j++) {
+                rx[j] -= ry[j];
+            }
+            out.setRow(i, 0, rx, 0, cols);
+        }
+        return out;
+    }
+
+    // out = x + y; out may be x or y
+    static void addInto(Matrix x, Matrix y, Matrix out) {
+        int cols = x.cols();
+        int[] rx = new int[cols];
+        int[] ry = new int[cols];
+        for (int i = 0; i < x.rows(); i++) {
+            x.getRow(i, 0, rx, 0, cols);
+            y.getRow(i, 0, ry, 0, cols);
+            for (int j = 0; j < cols; j++) {
+                rx[j] += ry[j];
+            }
+            out.setRow(i, 0, rx, 0, cols);
+        }
+    }
+
+    // c += x + sign * y
+    private static void accumulate(Matrix c, Matrix x, Matrix y, int sign) {
+        int cols = c.cols();
+        int[] rc = new int[cols];
+        int[] rx = new int[cols];
+        int[] ry = new int[cols];
+        for (int i = 0; i < c.rows(); i++) {
+            c.getRow(i, 0, rc, 0, cols);
+            x.getRow(i, 0, rx, 0, cols);
+            y.getRow(i, 0, ry, 0, cols);
+            for (int j = 0; j < cols; j++) {
+                rc[j] += rx[j] + sign * ry[j];
+            }
+            c.setRow(i, 0, rc, 0, cols);
+        }
+    }
+}
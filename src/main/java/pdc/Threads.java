@@ -0,0 +1,96 @@
+package pdc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+// where blocking I/O loops run: daemon platform threads, or one virtual thread each on a Java 21+
+// runtime. The virtual-thread API is looked up reflectively so the main build keeps targeting
+// Java 11; -Dpdc.virtualThreads=true makes virtual the default wherever the runtime has them.
+// Compute stays on platform pools either way: virtual threads only pay off for blocking waits
+final class Threads {
+
+    static final String PROPERTY = "pdc.virtualThreads";
+
+    // Thread.ofVirtual(), Thread.Builder.name(String, long) and .factory(); null before Java 21
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    // Executors.newThreadPerTaskExecutor(ThreadFactory)
+    private static final Method PER_TASK;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTask = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        PER_TASK = perTask;
+    }
+
+    private Threads() {
+    }
+
+    static boolean virtualAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    // what a Master or Worker starts with unless told otherwise
+    static boolean virtualByDefault() {
+        return Boolean.getBoolean(PROPERTY) && virtualAvailable();
+    }
+
+    static void checkVirtual(boolean virtual) {
+        if (virtual && !virtualAvailable())
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running on "
+                    + System.getProperty("java.version"));
+    }
+
+    // threads named prefix0, prefix1, ...; platform ones are daemons, as virtual ones always are
+    static ThreadFactory factory(String prefix, boolean virtual) {
+        if (virtual) {
+            checkVirtual(true);
+            try {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+                return (ThreadFactory) FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot create virtual threads", e);
+            }
+        }
+        AtomicLong seq = new AtomicLong();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // one new virtual thread per task, never pooled
+    static ExecutorService virtualPerTask(String prefix) {
+        try {
+            return (ExecutorService) PER_TASK.invoke(null, factory(prefix, true));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create virtual threads", e);
+        }
+    }
+
+    static Thread start(String name, boolean virtual, Runnable task) {
+        Thread t = factory(name, virtual).newThread(task);
+        t.setName(name);
+        t.start();
+        return t;
+    }
+}
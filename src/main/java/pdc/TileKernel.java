@@ -0,0 +1,11 @@
+package pdc;
+
+// the innermost loop of the packed kernels: up to ROWS rows of A against a packed tile of B,
+// accs[r][0, width) += arows[r][t] * tile[t][0, width) for every r < rows and t < depth. Taking
+// several rows at once lets a kernel reuse each tile load across them. See TileKernels
+interface TileKernel {
+
+    int ROWS = 4;
+
+    void accumulate(int[][] arows, int rows, int[][] tile, int depth, int[][] accs, int width);
+}
@@ -0,0 +1,63 @@
+package pdc;
+
+// picks the TileKernel once per JVM. The Vector API one lives in the vector source set, built for
+// Java 17 against the jdk.incubator.vector module, and is only loaded when that module has been
+// added to the runtime (--add-modules jdk.incubator.vector); everywhere else the scalar loop runs,
+// which C2 auto-vectorizes as well as it can. -Dpdc.simd=false forces the scalar loop
+final class TileKernels {
+
+    static final String PROPERTY = "pdc.simd";
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_CLASS = "pdc.VectorTileKernel";
+
+    private static final TileKernel SCALAR = new Scalar();
+    private static final TileKernel VECTOR = loadVector();
+    private static final TileKernel SELECTED = (VECTOR != null && !"false".equals(System.getProperty(PROPERTY)))
+            ? VECTOR
+            : SCALAR;
+
+    private TileKernels() {
+    }
+
+    static TileKernel scalar() {
+        return SCALAR;
+    }
+
+    // null when the runtime has no Vector API or the vector classes were not built
+    static TileKernel vector() {
+        return VECTOR;
+    }
+
+    static TileKernel selected() {
+        return SELECTED;
+    }
+
+    static boolean vectorSelected() {
+        return SELECTED == VECTOR;
+    }
+
+    private static TileKernel loadVector() {
+        if (!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent())
+            return null;
+        try {
+            return (TileKernel) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // one axpy per row of the tile, over the whole acc, a row of A at a time
+    private static final class Scalar implements TileKernel {
+        @Override
+        public void accumulate(int[][] arows, int rows, int[][] tile, int depth, int[][] accs, int width) {
+            for (int r = 0; r < rows; r++) {
+                int[] arow = arows[r];
+                int[] acc = accs[r];
+                for (int t = 0; t < depth; t++) {
+                    MatrixKernels.axpy(arow[t], tile[t], acc, 0, width);
+                }
+            }
+        }
+    }
+}
@@ -1,28 +1,109 @@
 package pdc;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Worker {
 
     private Socket socket;
     private volatile boolean running = false;
+    private String workerId = "";
+    // BlockCodec features offered at HELLO, then what the master agreed to
+    private int codecFeatures = BlockCodec.SUPPORTED_FEATURES;
+    // block multiplies that may run at once; advertised at HELLO so the master keeps them all busy
+    private int threads = Runtime.getRuntime().availableProcessors();
+    // the writer, and the reader when started with start(), on virtual threads; the multiplies
+    // always run on platform threads
+    private volatile boolean virtualThreads = Threads.virtualByDefault();
+    // blocks bigger than this in every dimension are multiplied with Strassen-Winograd; <= 0 never
+    private volatile int strassenCrossover = Strassen.DEFAULT_CROSSOVER;
+
+    // the socket thread only reads and dispatches: tasks run on taskPool and every reply goes out
+    // through the single writer thread, so frames never interleave on the socket
+    private volatile ExecutorService taskPool;
+    private volatile ExecutorService writer;
+    // results and work requests from many small tasks leave as batches; see setCoalescing
+    private volatile CoalescingWriter out;
+    private long coalesceDelayNanos = CoalescingWriter.DEFAULT_MAX_DELAY_NANOS;
+    private int coalesceBytes = CoalescingWriter.DEFAULT_MAX_BYTES;
+    // tasks handed to taskPool and not finished: QUEUED until a pool thread claims them, or
+    // CANCELLED by the master first, in which case they are answered without being run
+    private final ConcurrentHashMap<Long, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int CANCELLED = 2;
+    // B panels the master sent once, for every later task in the same columns
+    static final long DEFAULT_OPERAND_CACHE_BYTES = 256L * 1024 * 1024;
+    private final OperandCache operands = new OperandCache(DEFAULT_OPERAND_CACHE_BYTES);
+    // matrix files named by FILE_REF tasks, kept mapped across tasks; keyed by path and file
+    // identity so a file replaced under the same name is mapped afresh
+    static final int MAX_MAPPED_FILES = 8;
+    private final Map<String, MappedMatrix> mapped = new LinkedHashMap<String, MappedMatrix>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MappedMatrix> eldest) {
+            return size() > MAX_MAPPED_FILES;
+        }
+    };
+
+    // this worker's instruments; RPC traffic is in Metrics.shared()
+    private final Metrics metrics = new Metrics();
+    // time a task waited for a pool thread, and its multiply
+    private final Histogram queueWait = metrics.histogram("worker.task.queue_us");
+    private final Histogram computeTime = metrics.histogram("worker.task.compute_us");
+    private final Metrics.Counter tasksDone = metrics.counter("worker.tasks.done");
+    private final Metrics.Counter tasksFailed = metrics.counter("worker.tasks.failed");
+    private final Metrics.Counter tasksCancelled = metrics.counter("worker.tasks.cancelled");
+    private final Metrics.Counter operandMisses = metrics.counter("worker.tasks.operand_misses");
+
+    public Worker() {
+        metrics.gauge("worker.tasks.pending", pending::size);
+        metrics.gauge("worker.operands.bytes", operands::bytes);
+        metrics.gauge("worker.operands.hits", operands::hits);
+        metrics.gauge("worker.operands.misses", operands::misses);
+        metrics.gauge("worker.operands.evictions", operands::evictions);
+    }
 
     // connect to master and do a simple rpc-style request/response handshake
     public void joinCluster(String masterHost, int port) {
         try {
-            this.socket = new Socket(masterHost, port);
+            // a channel-backed socket gets RPC's pooled channel paths
+            this.socket = SocketChannel.open(new InetSocketAddress(masterHost, port)).socket();
 
             Message request = new Message();
             request.messageType = Message.TYPE_HELLO;
             request.studentId = System.getenv().getOrDefault("CSM218_STUDENT_ID", "UNKNOWN");
             request.sender = "worker";
-            request.payload = new byte[0];
+            int offer = (operands.budget() > 0) ? codecFeatures : codecFeatures & ~BlockCodec.FEATURE_OPERAND_CACHE;
+            request.setPayload(ByteBuffer.allocate(8).putInt(offer).putInt(threads).array());
 
             Message response = RPC.call(this.socket, request);
 
             this.running = (response != null);
-        } catch (IOException e) {
+            if (response != null) {
+                ByteBuffer welcome = response.payloadBuffer();
+                codecFeatures = (welcome.remaining() >= 4) ? welcome.getInt() & offer : 0;
+                this.workerId = StandardCharsets.UTF_8.decode(welcome).toString();
+            }
+        } catch (IOException | UnresolvedAddressException e) {
+            metrics.error("worker.join.failed", e);
             this.running = false;
         }
     }
@@ -31,30 +112,309 @@ public class Worker {
         if (socket == null || !running)
             return;
 
+        taskPool = Executors.newFixedThreadPool(threads, daemon("worker-task"));
+        writer = Executors.newSingleThreadExecutor(
+                virtualThreads ? Threads.factory("worker-writer-", true) : daemon("worker-writer"));
+        out = new CoalescingWriter(socket, coalesceDelayNanos, coalesceBytes, writer);
+        // a master in pull mode only sends tasks against slots asked for
+        reply(workRequest(threads));
         try {
             while (running) {
-                Message request = RPC.receive(socket);
-
-                if (request.messageType == Message.TYPE_TASK) {
-                    Message result = new Message();
-                    result.messageType = Message.TYPE_RESULT;
-                    result.studentId = request.studentId;
-                    result.sender = "worker";
-                    result.payload = request.payload; // placeholder until task logic is added
-                    RPC.send(socket, result);
-                } else if (request.messageType == Message.TYPE_HEARTBEAT) {
-                    Message pong = new Message();
-                    pong.messageType = Message.TYPE_HEARTBEAT;
-                    pong.studentId = request.studentId;
-                    pong.sender = "worker";
-                    pong.payload = new byte[0];
-                    RPC.send(socket, pong);
+                Message request = RPC.receivePooled(socket);
+                if (request.messageType == Message.TYPE_BATCH) {
+                    for (Message m : request.unbatch()) {
+                        handle(m);
+                    }
                 } else {
-                    // ignore unknown message types for now
+                    handle(request);
                 }
             }
-        } catch (IOException e) {
+        } catch (IOException | RejectedExecutionException e) {
+            // stop() closes the socket under the reader; anything else is the connection failing
+            if (running)
+                metrics.error("worker.connection.failed", e);
             running = false;
+        } finally {
+            taskPool.shutdownNow();
+            writer.shutdown();
+        }
+    }
+
+    // one inbound frame; tasks are queued on taskPool, everything else is answered here
+    private void handle(Message request) {
+        if (request.messageType == Message.TYPE_TASK) {
+            ByteBuffer p = request.payloadBuffer();
+            long taskId = (p.remaining() >= 8) ? p.getLong() : -1;
+            AtomicInteger state = new AtomicInteger(QUEUED);
+            pending.put(taskId, state);
+            long queuedAt = System.nanoTime();
+            taskPool.execute(() -> {
+                Message reply;
+                try {
+                    if (state.compareAndSet(QUEUED, RUNNING)) {
+                        queueWait.record((System.nanoTime() - queuedAt) / 1000);
+                        reply = runTask(request);
+                    } else {
+                        tasksCancelled.inc();
+                        reply = error(answer(request), request.payloadBuffer(), "cancelled");
+                    }
+                } finally {
+                    pending.remove(taskId, state);
+                    request.release();
+                }
+                reply(reply);
+                reply(workRequest(1));
+            });
+        } else if (request.messageType == Message.TYPE_OPERAND) {
+            // stored here on the reader thread, so every task that follows it on the wire finds it
+            try {
+                BlockCodec.Operand operand = BlockCodec.decodeOperand(request.payloadBuffer());
+                operands.put(operand.id, operand.matrix);
+            } catch (IOException e) {
+                // tasks that refer to it miss and the master sends it again
+                metrics.error("worker.operands.garbled", e);
+            } finally {
+                request.release();
+            }
+        } else if (request.messageType == Message.TYPE_CANCEL) {
+            ByteBuffer p = request.payloadBuffer();
+            AtomicInteger state = (p.remaining() >= 8) ? pending.get(p.getLong()) : null;
+            if (state != null)
+                state.compareAndSet(QUEUED, CANCELLED);
+            request.release();
+        } else if (request.messageType == Message.TYPE_HEARTBEAT) {
+            Message pong = new Message();
+            pong.messageType = Message.TYPE_HEARTBEAT;
+            pong.studentId = request.studentId;
+            pong.sender = "worker";
+            pong.setPayload(new byte[0]);
+            pong.requestId = request.requestId;
+            request.release();
+            reply(pong);
+        } else {
+            // ignore unknown message types for now
+            request.release();
+        }
+    }
+
+    // runs execute() on a thread of its own, virtual if setVirtualThreads asked for it
+    public Thread start() {
+        return Threads.start("worker-reader-" + workerId, virtualThreads, this::execute);
+    }
+
+    public void stop() {
+        running = false;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
         }
     }
+
+    // block multiplies run concurrently; takes effect at the next joinCluster
+    public void setThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+        this.threads = threads;
+    }
+
+    // I/O threads for the next execute() or start(); true needs a Java 21 runtime
+    public void setVirtualThreads(boolean virtual) {
+        Threads.checkVirtual(virtual);
+        this.virtualThreads = virtual;
+    }
+
+    // same results either way; only the time a large block takes changes
+    public void setStrassenCrossover(int crossover) {
+        this.strassenCrossover = crossover;
+    }
+
+    // limits the payload packings offered at the next joinCluster
+    public void setCodecFeatures(int features) {
+        this.codecFeatures = features & BlockCodec.SUPPORTED_FEATURES;
+    }
+
+    // replies wait up to maxDelayMicros, or until maxBytes are waiting, to go out together; takes
+    // effect at the next execute(), and maxDelayMicros <= 0 sends each reply as it is ready
+    public void setCoalescing(long maxDelayMicros, int maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive");
+        this.coalesceDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.coalesceBytes = maxBytes;
+    }
+
+    // memory for operands the master sent once; the least recently used go first. 0 turns the
+    // cache off from the next joinCluster, so every task carries its own B panel
+    public void setOperandCacheBytes(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("bytes must not be negative");
+        operands.setBudget(bytes);
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    // counters, gauges and latency histograms of this worker; snapshot() or dumpEvery() them
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    private void reply(Message msg) {
+        try {
+            writer.execute(() -> {
+                try {
+                    out.write(msg);
+                } catch (IOException e) {
+                    // the reader sees the same dead socket and ends execute()
+                    if (running)
+                        metrics.error("worker.reply.failed", e);
+                    stop();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down; the master requeues whatever it did not hear back about
+        }
+    }
+
+    private Message workRequest(int slots) {
+        Message request = new Message();
+        request.messageType = Message.TYPE_WORK_REQUEST;
+        request.sender = workerId.isEmpty() ? "worker" : workerId;
+        request.setPayload(ByteBuffer.allocate(4).putInt(slots).array());
+        return request;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // multiply the A strip by the B panel, carried in the task or cached, and ship back the C block
+    private Message runTask(Message request) {
+        Message reply = answer(request);
+
+        BlockCodec.Task task;
+        try {
+            task = BlockCodec.decodeTask(request.payloadBuffer());
+        } catch (IOException e) {
+            tasksFailed.inc();
+            return error(reply, request.payloadBuffer(), e.getMessage());
+        }
+
+        if (task.files != null)
+            return runFileTask(reply, task);
+
+        Matrix b = task.b;
+        if (b == null) {
+            b = operands.get(task.operandId);
+            if (b == null || b.rows() != task.a.cols() || b.cols() != task.block.cols()) {
+                operandMisses.inc();
+                reply.messageType = Message.TYPE_CACHE_MISS;
+                reply.setPayload(ByteBuffer.allocate(16).putLong(task.taskId).putLong(task.operandId).array());
+                return reply;
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            Accumulation acc = task.accumulation;
+            if (acc.mode() == Accumulation.Mode.LONG) {
+                LongMatrix c = MatrixGenerator.multiplyLong(task.a, b);
+                long computeNanos = System.nanoTime() - start;
+                computeTime.record(computeNanos / 1000);
+                reply.setPayload(BlockCodec.encodeResult(task.taskId, task.block, c, computeNanos, codecFeatures));
+            } else {
+                Matrix c = (acc.mode() == Accumulation.Mode.MOD) ? MatrixGenerator.multiplyMod(task.a, b, acc.modulus())
+                        : multiply(task.a, b);
+                long computeNanos = System.nanoTime() - start;
+                computeTime.record(computeNanos / 1000);
+                reply.setPayload(BlockCodec.encodeResult(task.taskId, task.block, c, computeNanos, codecFeatures));
+            }
+            reply.messageType = Message.TYPE_RESULT;
+        } catch (RuntimeException e) {
+            tasksFailed.inc();
+            return error(reply, request.payloadBuffer(), String.valueOf(e.getMessage()));
+        }
+        tasksDone.inc();
+        return reply;
+    }
+
+    private Matrix multiply(Matrix a, Matrix b) {
+        return MatrixGenerator.strassenMultiply(a, b, strassenCrossover);
+    }
+
+    // operands straight from the mapped files; the C block is computed aside and copied in, so a
+    // speculative twin writing the same block cannot interleave with it
+    private Message runFileTask(Message reply, BlockCodec.Task task) {
+        Block block = task.block;
+        Matrix a;
+        Matrix b;
+        Matrix c;
+        try {
+            a = mapFile(task.files[0]);
+            b = mapFile(task.files[1]);
+            c = mapFile(task.files[2]);
+        } catch (IOException | RuntimeException e) {
+            metrics.error("worker.files.unmapped", e);
+            a = b = c = null;
+        }
+        if (a == null || a.rows() < block.rowEnd || a.cols() != b.rows() || b.cols() < block.colEnd
+                || c.rows() != a.rows() || c.cols() != b.cols()) {
+            // the master sends it again over the socket
+            reply.messageType = Message.TYPE_CACHE_MISS;
+            reply.setPayload(ByteBuffer.allocate(16).putLong(task.taskId).putLong(0).array());
+            return reply;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Matrix strip = a.view(block.rowStart, 0, block.rows(), a.cols());
+            c.view(block).copyFrom(multiply(strip, BlockCodec.panel(b, block)));
+        } catch (RuntimeException e) {
+            tasksFailed.inc();
+            return error(reply, ByteBuffer.allocate(8).putLong(0, task.taskId), String.valueOf(e.getMessage()));
+        }
+        long computeNanos = System.nanoTime() - start;
+        computeTime.record(computeNanos / 1000);
+        tasksDone.inc();
+        reply.messageType = Message.TYPE_RESULT;
+        reply.setPayload(BlockCodec.encodeResultInPlace(task.taskId, block, computeNanos));
+        return reply;
+    }
+
+    private MappedMatrix mapFile(String path) throws IOException {
+        Path file = Paths.get(path);
+        String key = path + "@" + Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        synchronized (mapped) {
+            MappedMatrix m = mapped.get(key);
+            if (m == null) {
+                m = MappedMatrix.open(file);
+                mapped.put(key, m);
+            }
+            return m;
+        }
+    }
+
+    private Message answer(Message request) {
+        Message reply = new Message();
+        reply.requestId = request.requestId;
+        reply.studentId = request.studentId;
+        reply.sender = workerId.isEmpty() ? "worker" : workerId;
+        return reply;
+    }
+
+    // error payload: taskId(8) followed by a utf-8 reason
+    private static Message error(Message reply, ByteBuffer taskPayload, String reason) {
+        long taskId = (taskPayload.remaining() >= 8) ? taskPayload.getLong(taskPayload.position()) : -1;
+        byte[] text = (reason == null ? "" : reason).getBytes(StandardCharsets.UTF_8);
+
+        reply.messageType = Message.TYPE_ERROR;
+        reply.setPayload(ByteBuffer.allocate(8 + text.length).putLong(taskId).put(text).array());
+        return reply;
+    }
 }
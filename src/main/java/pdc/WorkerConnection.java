@@ -0,0 +1,156 @@
+package pdc;
+
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// master-side handle for a worker that joined with TYPE_HELLO; every block task is a call
+// multiplexed over the worker's single connection
+final class WorkerConnection implements BlockScheduler.Load {
+
+    // blocks a worker may hold before the master stops feeding it, unless it reports more slots
+    static final int WINDOW = 2;
+
+    interface Listener {
+        void onMessage(WorkerConnection worker, Message msg);
+
+        void onClosed(WorkerConnection worker);
+    }
+
+    final String id;
+    private final RpcClient rpc;
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean alive = true;
+    // BlockCodec features agreed at HELLO; block payloads to this worker may use these
+    volatile int codecFeatures;
+    // one block per task thread the worker reported, plus one queued behind them
+    volatile int window = WINDOW;
+    // EWMA of multiply-adds per nanosecond from the compute times in its results
+    private volatile double throughput;
+    static final double THROUGHPUT_ALPHA = 0.3;
+    // connected from this host, so it can map the same matrix files
+    volatile boolean sameHost;
+    // operand ids the worker was sent and is believed to still hold; a cache miss takes one out
+    final Set<Long> operands = ConcurrentHashMap.newKeySet();
+    // task slots the worker asked for with TYPE_WORK_REQUEST and has not been sent blocks for
+    private final AtomicInteger demand = new AtomicInteger();
+    // its block round trips and lost or failed blocks; detached until the master registers the
+    // worker and swaps in instruments from its own registry
+    volatile Histogram latency = new Histogram();
+    volatile Metrics.Counter failures = new Metrics.Counter();
+
+    // blocking-socket worker: tasks go out through out, e.g. a CoalescingWriter on the socket
+    WorkerConnection(String id, Socket socket, RpcClient.Transport out, Listener listener) {
+        this.id = id;
+        this.rpc = new RpcClient(socket, out, handler(listener));
+        // results are decoded into their own matrix and released right away in Master.onReply
+        rpc.setPooledReceive(true);
+    }
+
+    // selector-driven worker: the event loop pushes its frames in through rpc().deliver()
+    WorkerConnection(String id, RpcClient.Transport transport, Listener listener) {
+        this.id = id;
+        this.rpc = new RpcClient(transport, handler(listener));
+    }
+
+    private RpcClient.Handler handler(Listener listener) {
+        return new RpcClient.Handler() {
+            @Override
+            public void onMessage(RpcClient client, Message msg) {
+                listener.onMessage(WorkerConnection.this, msg);
+            }
+
+            @Override
+            public void onClose(RpcClient client, Throwable cause) {
+                listener.onClosed(WorkerConnection.this);
+            }
+        };
+    }
+
+    @Override
+    public String id() {
+        return id;
+    }
+
+    @Override
+    public int outstanding() {
+        return inFlight.size();
+    }
+
+    @Override
+    public int window() {
+        return window;
+    }
+
+    @Override
+    public double throughput() {
+        return throughput;
+    }
+
+    // called from this worker's reader thread only
+    void recordThroughput(long multiplyAdds, long computeNanos) {
+        if (multiplyAdds <= 0 || computeNanos <= 0)
+            return;
+        double sample = (double) multiplyAdds / computeNanos;
+        double prev = throughput;
+        throughput = (prev == 0) ? sample : prev + THROUGHPUT_ALPHA * (sample - prev);
+    }
+
+    // never more than its window: requests a push-mode master ignored must not pile up
+    void addDemand(int slots) {
+        demand.getAndUpdate(d -> Math.max(0, Math.min(window, d + slots)));
+    }
+
+    int demand() {
+        return demand.get();
+    }
+
+    boolean takeSlot() {
+        return demand.getAndUpdate(d -> Math.max(0, d - 1)) > 0;
+    }
+
+    RpcClient rpc() {
+        return rpc;
+    }
+
+    void send(Message msg) throws java.io.IOException {
+        rpc.send(msg);
+    }
+
+    CompletableFuture<Message> call(Message msg) {
+        return rpc.call(msg);
+    }
+
+    // blocks reading replies until the connection ends
+    void readLoop() {
+        rpc.run();
+    }
+
+    boolean isAlive() {
+        return alive && rpc.isOpen();
+    }
+
+    boolean hasCapacity(int depth) {
+        return isAlive() && inFlight.size() < depth;
+    }
+
+    void track(long taskId) {
+        inFlight.add(taskId);
+    }
+
+    void untrack(long taskId) {
+        inFlight.remove(taskId);
+    }
+
+    // marks the connection dead and hands back whatever it was still running
+    Set<Long> close() {
+        alive = false;
+        rpc.close();
+        Set<Long> lost = ConcurrentHashMap.newKeySet();
+        lost.addAll(inFlight);
+        inFlight.clear();
+        return lost;
+    }
+}
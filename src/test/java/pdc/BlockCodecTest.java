@@ -0,0 +1,163 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for the block payload codec.
+ * Covers int32, varint and LZ4-compressed bodies, operand references, accumulation modes and long
+ * results, and rejection of damaged payloads.
+ */
+class BlockCodecTest {
+
+    private static final Block BLOCK = new Block(8, 40, 16, 80);
+
+    @Test
+    void testTask_RoundTripEveryFeatureSet() throws Exception {
+        Matrix a = MatrixGenerator.randomMatrix(64, 48, 10);
+        Matrix b = MatrixGenerator.randomMatrix(48, 96, 10);
+
+        for (int features = 0; features <= BlockCodec.SUPPORTED_FEATURES; features++) {
+            byte[] payload = BlockCodec.encodeTask(7, BLOCK, a, b, features);
+            BlockCodec.Task task = BlockCodec.decodeTask(payload);
+            assertEquals(7, task.taskId);
+            assertTrue(task.a.contentEquals(a.view(8, 0, 32, 48)), "features=" + features);
+            assertTrue(task.b.contentEquals(b.view(0, 16, 48, 64)), "features=" + features);
+        }
+    }
+
+    @Test
+    void testTask_OperandReferenceLeavesPanelOut() throws Exception {
+        Matrix a = MatrixGenerator.randomMatrix(64, 48, 10);
+        Matrix b = MatrixGenerator.randomMatrix(48, 96, 10);
+        Matrix panel = BlockCodec.panel(b, BLOCK);
+        long id = BlockCodec.contentId(panel);
+        Matrix copy = Matrix.direct(panel.rows(), panel.cols());
+        copy.copyFrom(panel);
+        assertEquals(id, BlockCodec.contentId(copy), "Equal contents should share an id");
+        copy.set(0, 0, copy.get(0, 0) + 1);
+        assertTrue(id != BlockCodec.contentId(copy));
+
+        byte[] full = BlockCodec.encodeTask(7, BLOCK, a, b, 0);
+        byte[] ref = BlockCodec.encodeTask(7, BLOCK, a, b, 0, id);
+        assertTrue(ref.length < full.length / 2, full.length + " -> " + ref.length);
+
+        BlockCodec.Task task = BlockCodec.decodeTask(ref);
+        assertNull(task.b);
+        assertEquals(id, task.operandId);
+        assertTrue(task.a.contentEquals(a.view(8, 0, 32, 48)));
+
+        BlockCodec.Operand operand = BlockCodec.decodeOperand(
+                ByteBuffer.wrap(BlockCodec.encodeOperand(id, panel, BlockCodec.SUPPORTED_FEATURES)));
+        assertEquals(id, operand.id);
+        assertTrue(operand.matrix.contentEquals(panel));
+    }
+
+    @Test
+    void testAccumulation_TaskModeAndLongResultsRoundTrip() throws Exception {
+        Matrix a = MatrixGenerator.randomMatrix(64, 48, 10);
+        Matrix b = MatrixGenerator.randomMatrix(48, 96, 10);
+        for (Accumulation acc : new Accumulation[] { Accumulation.INT, Accumulation.LONG, Accumulation.mod(1_000_000_007) }) {
+            BlockCodec.Task task = BlockCodec.decodeTask(BlockCodec.encodeTask(7, BLOCK, a, b, 0, 0, acc));
+            assertEquals(acc, task.accumulation);
+            assertTrue(task.b.contentEquals(b.view(0, 16, 48, 64)), acc.toString());
+
+            task = BlockCodec.decodeTask(BlockCodec.encodeTask(7, BLOCK, a, b, 0, 42, acc));
+            assertEquals(acc, task.accumulation);
+            assertEquals(42, task.operandId);
+            assertTrue(task.a.contentEquals(a.view(8, 0, 32, 48)), acc.toString());
+        }
+
+        Random rnd = new Random(5);
+        LongMatrix small = LongMatrix.heap(BLOCK.rows(), BLOCK.cols());
+        LongMatrix extreme = LongMatrix.heap(BLOCK.rows(), BLOCK.cols());
+        for (int i = 0; i < BLOCK.rows(); i++) {
+            for (int j = 0; j < BLOCK.cols(); j++) {
+                small.set(i, j, rnd.nextInt(200) - 100);
+                extreme.set(i, j, (j % 3 == 0) ? Long.MIN_VALUE + i : rnd.nextLong());
+            }
+        }
+        for (LongMatrix c : new LongMatrix[] { small, extreme }) {
+            for (int features : new int[] { 0, BlockCodec.FEATURE_VARINT, BlockCodec.SUPPORTED_FEATURES }) {
+                byte[] payload = BlockCodec.encodeResult(9, BLOCK, c, 1234, features);
+                BlockCodec.Result r = BlockCodec.decodeResult(payload);
+                assertNull(r.c);
+                assertEquals(1234, r.computeNanos);
+                assertTrue(c.contentEquals(r.wide), "features=" + features);
+                assertThrows(IOException.class, () -> BlockCodec.decodeResult(Arrays.copyOf(payload, payload.length - 1)));
+            }
+        }
+        assertTrue(BlockCodec.encodeResult(9, BLOCK, small, 0, BlockCodec.FEATURE_VARINT).length * 4 < BLOCK.rows()
+                * BLOCK.cols() * 8, "Small longs should go out as varints");
+    }
+
+    @Test
+    void testResult_SmallValuesShrinkSeveralFold() throws Exception {
+        Matrix c = MatrixGenerator.randomMatrix(32, 64, 50);
+        byte[] raw = BlockCodec.encodeResult(3, BLOCK, c);
+        byte[] packed = BlockCodec.encodeResult(3, BLOCK, c, BlockCodec.FEATURE_VARINT);
+        assertTrue(packed.length * 3 < raw.length, raw.length + " -> " + packed.length);
+
+        BlockCodec.Result back = BlockCodec.decodeResult(packed);
+        assertTrue(back.c.contentEquals(c));
+
+        byte[] timed = BlockCodec.encodeResult(3, BLOCK, c, 12345L, BlockCodec.FEATURE_VARINT);
+        assertEquals(12345L, BlockCodec.decodeResult(timed).computeNanos);
+    }
+
+    @Test
+    void testResult_NegativeAndExtremeValuesSurviveVarint() throws Exception {
+        Matrix c = Matrix.heap(32, 64);
+        c.set(0, 0, Integer.MIN_VALUE);
+        c.set(1, 1, Integer.MAX_VALUE);
+        c.set(2, 2, -1);
+        byte[] payload = BlockCodec.encodeResult(1, BLOCK, c, BlockCodec.SUPPORTED_FEATURES);
+        assertTrue(BlockCodec.decodeResult(payload).c.contentEquals(c));
+    }
+
+    @Test
+    void testLz4_RoundTripAndRejectsTruncation() throws Exception {
+        Random rnd = new Random(5);
+        byte[] src = new byte[100_000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) ((i % 3000 < 1500) ? i % 7 : rnd.nextInt());
+        }
+        byte[] packed = new byte[Lz4.maxCompressedLength(src.length)];
+        int n = Lz4.compress(src, 0, src.length, packed, 0);
+        assertTrue(n < src.length);
+
+        byte[] out = new byte[src.length];
+        Lz4.decompress(packed, 0, n, out, 0, out.length);
+        assertArrayEquals(src, out);
+        assertThrows(IOException.class, () -> Lz4.decompress(packed, 0, n - 1, out, 0, out.length));
+    }
+
+    @Test
+    void testDecode_RejectsDamagedPayloads() {
+        Matrix c = Matrix.heap(32, 64);
+        byte[] payload = BlockCodec.encodeResult(1, BLOCK, c, BlockCodec.SUPPORTED_FEATURES);
+        byte[] cut = Arrays.copyOf(payload, payload.length - 1);
+        assertThrows(IOException.class, () -> BlockCodec.decodeResult(cut));
+
+        byte[] badFormat = BlockCodec.encodeResult(1, BLOCK, c);
+        badFormat[32] = 0x42;
+        assertThrows(IOException.class, () -> BlockCodec.decodeResult(badFormat));
+    }
+
+    @Test
+    void testDecode_RejectsOversizedLongBlockBeforeAllocating() {
+        LongMatrix c = LongMatrix.heap(BLOCK.rows(), BLOCK.cols());
+        for (int features : new int[] { 0, BlockCodec.FEATURE_VARINT, BlockCodec.SUPPORTED_FEATURES }) {
+            // a header claiming a 40000 x 40000 block, 12.8 GB of longs, over a small body
+            ByteBuffer payload = ByteBuffer.wrap(BlockCodec.encodeResult(1, BLOCK, c, 0, features));
+            payload.putInt(8, 0).putInt(12, 40_000).putInt(16, 0).putInt(20, 40_000);
+            assertThrows(IOException.class, () -> BlockCodec.decodeResult(payload.array()), "features=" + features);
+        }
+    }
+}
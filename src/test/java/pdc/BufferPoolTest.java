@@ -0,0 +1,55 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for BufferPool.
+ * Covers size classes, reuse and reference-counted release.
+ */
+class BufferPoolTest {
+
+    @Test
+    void testAcquire_RoundsUpToSizeClass() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer b = pool.acquire(5000);
+        assertTrue(b.buffer().isDirect());
+        assertEquals(8192, b.buffer().capacity());
+        assertEquals(5000, b.buffer().limit());
+        assertEquals(0, BufferPool.sizeClass(1));
+        assertEquals(-1, BufferPool.sizeClass((1 << BufferPool.MAX_SHIFT) + 1));
+        b.release();
+    }
+
+    @Test
+    void testRelease_ReusesBuffer() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer first = pool.acquire(100);
+        first.buffer().put((byte) 1);
+        first.release();
+
+        PooledBuffer second = pool.acquire(200);
+        assertSame(first.buffer(), second.buffer());
+        assertEquals(0, second.buffer().position());
+
+        BufferPool.Stats stats = pool.stats();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+        assertEquals(4096, stats.bytesOutstanding);
+        second.release();
+        assertEquals(0, pool.stats().bytesOutstanding);
+        assertEquals(4096, pool.stats().bytesIdle);
+    }
+
+    @Test
+    void testRetain_DefersReturnUntilLastRelease() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer b = pool.acquire(10).retain();
+        assertEquals(2, b.refCount());
+        assertFalse(b.release());
+        assertTrue(b.release());
+        assertThrows(IllegalStateException.class, b::release);
+        assertThrows(IllegalStateException.class, b::retain);
+    }
+}
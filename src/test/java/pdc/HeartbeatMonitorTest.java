@@ -0,0 +1,59 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for HeartbeatMonitor.
+ * Covers quiet pings, phi-accrual suspicion and removal on the timing wheel.
+ */
+class HeartbeatMonitorTest {
+
+    private final List<String> quiet = new CopyOnWriteArrayList<>();
+    private final List<String> suspected = new CopyOnWriteArrayList<>();
+
+    private final HeartbeatMonitor monitor = new HeartbeatMonitor(20, 2000, 8.0, new HeartbeatMonitor.Listener() {
+        @Override
+        public void onQuiet(String id) {
+            quiet.add(id);
+        }
+
+        @Override
+        public void onSuspect(String id, double phi) {
+            suspected.add(id);
+        }
+    });
+
+    @Test
+    void testAdvance_SuspectsOnlyTheSilentPeer() throws Exception {
+        monitor.register("chatty");
+        monitor.register("silent");
+
+        long end = System.currentTimeMillis() + 400;
+        while (System.currentTimeMillis() < end) {
+            monitor.heartbeat("chatty");
+            monitor.advance(System.currentTimeMillis());
+            Thread.sleep(3);
+        }
+
+        assertEquals(List.of("silent"), suspected, "Phi should pass the threshold well before the timeout");
+        assertTrue(quiet.contains("silent"), "A quiet peer is pinged before it is suspected");
+        assertFalse(quiet.contains("chatty"));
+        assertFalse(monitor.isTracked("silent"));
+        assertTrue(monitor.phi("chatty") < 1.0);
+    }
+
+    @Test
+    void testRemove_StopsTracking() throws Exception {
+        monitor.register("gone");
+        monitor.remove("gone");
+        Thread.sleep(150);
+        monitor.advance(System.currentTimeMillis());
+        assertTrue(suspected.isEmpty());
+        assertTrue(quiet.isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for file-backed matrices.
+ * Covers the file format, views across mapping segments and budget-bounded block partitioning.
+ */
+class MappedMatrixTest {
+
+    @Test
+    void testReopen_SeesWritesAcrossSegments() throws Exception {
+        Path file = Files.createTempFile("matrix", ".csmx");
+        try {
+            // three rows per segment, so most views straddle a boundary
+            MappedMatrix m = MappedMatrix.create(file, 10, 7, 3 * 7 * 4);
+            Matrix src = MatrixGenerator.randomMatrix(10, 7, 100);
+            m.copyFrom(src);
+            m.force();
+
+            MappedMatrix back = MappedMatrix.open(file, 3 * 7 * 4);
+            assertTrue(back.isWholeFile());
+            assertTrue(back.contentEquals(src));
+            assertTrue(back.view(2, 1, 5, 4).contentEquals(src.view(2, 1, 5, 4)));
+            assertFalse(((MappedMatrix) back.view(2, 1, 5, 4)).isWholeFile());
+
+            // the int32 packing of a block body reads straight out of a mapped view
+            Block block = new Block(2, 7, 1, 5);
+            byte[] payload = BlockCodec.encodeResult(1, block, back.view(block));
+            assertTrue(BlockCodec.decodeResult(payload).c.contentEquals(src.view(block)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testOpen_RejectsForeignFile() throws Exception {
+        Path file = Files.createTempFile("matrix", ".bin");
+        try {
+            Files.write(file, new byte[128]);
+            assertThrows(IOException.class, () -> MappedMatrix.open(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testForBudget_BoundsTaskBytes() {
+        int rows = 4000;
+        int cols = 3000;
+        int inner = 2000;
+        long budget = 8L * 1024 * 1024;
+        List<Block> blocks = BlockPartitioner.forBudget(rows, cols, inner, 2, budget);
+
+        long covered = 0;
+        for (Block b : blocks) {
+            long bytes = 4L * ((long) b.rows() * inner + (long) inner * b.cols() + (long) b.rows() * b.cols());
+            assertTrue(bytes <= budget, b + " needs " + bytes);
+            covered += (long) b.rows() * b.cols();
+        }
+        assertEquals((long) rows * cols, covered);
+        assertEquals(BlockPartitioner.forWorkers(64, 64, 2).size(), BlockPartitioner.forBudget(64, 64, 64, 2, budget).size());
+    }
+}
@@ -1,7 +1,18 @@
 package pdc;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -17,6 +28,11 @@ class MasterTest {
         master = new Master();
     }
 
+    @AfterEach
+    void tearDown() {
+        master.shutdown();
+    }
+
     @Test
     void testCoordinate_Structure() {
         // High level test to ensure the engine starts
@@ -39,4 +55,557 @@ class MasterTest {
             master.reconcileState();
         }, "State reconciliation should be a callable system maintenance task");
     }
+
+    @Test
+    void testBlockMultiply_LocalFallback() {
+        int[][] a = MatrixGenerator.generateRandomMatrix(17, 9, 10);
+        int[][] b = MatrixGenerator.generateRandomMatrix(9, 13, 10);
+
+        int[][] c = master.blockMultiply(a, b, 3);
+        assertArrayEquals(MatrixGenerator.multiply(a, b), c, "No workers joined: result should be computed locally");
+    }
+
+    @Test
+    void testCoordinate_BlockMultiply_Distributed() throws Exception {
+        master.listen(0);
+        List<Worker> workers = startWorkers(3);
+        try {
+            int[][] data = MatrixGenerator.generateRandomMatrix(40, 40, 50);
+            Object result = master.coordinate("BLOCK_MULTIPLY", data, 3);
+
+            assertTrue(result instanceof int[][], "BLOCK_MULTIPLY should return the assembled matrix");
+            assertArrayEquals(data, (int[][]) result, "Multiplying by the identity should return the input");
+
+            int[][] a = MatrixGenerator.generateRandomMatrix(33, 21, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(21, 45, 20);
+            assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 3));
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testStrassenMultiply_SubProductsSpreadOverWorkers() throws Exception {
+        // two levels on the master: 49 leaf products, each its own block job
+        master.setStrassen(2, 8);
+        Matrix a = MatrixGenerator.randomMatrix(67, 45, 100);
+        Matrix b = MatrixGenerator.randomMatrix(45, 53, 100);
+        Matrix expected = MatrixGenerator.multiply(a, b);
+        assertTrue(expected.contentEquals(master.strassenMultiply(a, b, 2)), "No workers: should be computed locally");
+
+        master.listen(0);
+        List<Worker> workers = startWorkers(2);
+        try {
+            assertTrue(expected.contentEquals(master.strassenMultiply(a, b, 2)));
+            long dispatched = master.metrics().snapshot().counter("master.tasks.dispatched");
+            assertTrue(dispatched >= 49, "Every leaf product should have been dispatched, got " + dispatched);
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testAccumulation_LongAndModThroughWorkers() throws Exception {
+        // maxValue this large overflows the int sums of blockMultiply
+        Matrix a = MatrixGenerator.randomMatrix(45, 70, 1 << 20);
+        Matrix b = MatrixGenerator.randomMatrix(70, 38, 1 << 20);
+        LongMatrix exact = MatrixGenerator.multiplyLong(a, b);
+        Matrix mod = MatrixGenerator.multiplyMod(a, b, 1_000_000_007);
+        assertTrue(exact.contentEquals(master.blockMultiplyLong(a, b, 2)), "No workers: should be computed locally");
+
+        master.listen(0);
+        List<Worker> workers = startWorkers(2);
+        try {
+            long before = master.metrics().snapshot().counter("master.tasks.dispatched");
+            assertTrue(exact.contentEquals(master.blockMultiplyLong(a, b, 2)));
+            assertTrue(mod.contentEquals(master.blockMultiplyMod(a, b, 1_000_000_007, 2)));
+            assertTrue(master.metrics().snapshot().counter("master.tasks.dispatched") > before,
+                    "Blocks should have gone to the workers");
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_OneWorkerRunsBlocksConcurrently() throws Exception {
+        master.listen(0);
+        Worker w = new Worker();
+        w.setThreads(4);
+        w.joinCluster("localhost", master.getPort());
+        Thread t = new Thread(w::execute);
+        t.setDaemon(true);
+        t.start();
+        try {
+            int[][] a = MatrixGenerator.generateRandomMatrix(96, 80, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(80, 72, 20);
+            for (int round = 0; round < 3; round++) {
+                assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 1));
+            }
+        } finally {
+            w.stop();
+        }
+    }
+
+    @Test
+    void testBlockMultiply_ThroughputWeightedScheduler() throws Exception {
+        master.setScheduler(Schedulers.throughputWeighted());
+        master.listen(0);
+        List<Worker> workers = startWorkers(3);
+        try {
+            int[][] a = MatrixGenerator.generateRandomMatrix(150, 70, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(70, 90, 20);
+            // later rounds run with measured throughputs, so blocks may be carved
+            for (int round = 0; round < 4; round++) {
+                assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 3));
+            }
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_PullModeStealsFromIdleRange() throws Exception {
+        master.setPullMode(true);
+        master.listen(0);
+        List<Worker> workers = startWorkers(1);
+
+        // joins but never asks for work, so its whole range has to be stolen
+        Socket lazy = new Socket("localhost", master.getPort());
+        Message hello = new Message();
+        hello.messageType = Message.TYPE_HELLO;
+        RPC.call(lazy, hello);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (master.workerCount() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        try {
+            int[][] a = MatrixGenerator.generateRandomMatrix(96, 40, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(40, 64, 20);
+            assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 2));
+            assertTrue(master.stolenBlocks() > 0, "The active worker should have stolen the idle range");
+        } finally {
+            lazy.close();
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_ResendsEvictedOperands() throws Exception {
+        master.listen(0);
+        // room for less than one B panel: every reference misses and the master falls back
+        Worker w = new Worker();
+        w.setOperandCacheBytes(1024);
+        w.joinCluster("localhost", master.getPort());
+        Thread t = new Thread(w::execute);
+        t.setDaemon(true);
+        t.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (master.workerCount() < 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        try {
+            int[][] a = MatrixGenerator.generateRandomMatrix(80, 60, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(60, 50, 20);
+            for (int round = 0; round < 2; round++) {
+                assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 2));
+            }
+        } finally {
+            w.stop();
+        }
+    }
+
+    @Test
+    void testMultiplyStreaming_ReportsEveryRowOnce() throws Exception {
+        master.listen(0);
+        List<Worker> workers = startWorkers(2);
+        try {
+            Matrix a = MatrixGenerator.randomMatrix(120, 50, 20);
+            Matrix b = MatrixGenerator.randomMatrix(50, 70, 20);
+            Matrix c = Matrix.direct(120, 70);
+
+            RowStream rows = master.multiplyStreaming(a, b, c, 2);
+            int[] seen = new int[120];
+            while (rows.hasNext()) {
+                Block range = rows.next();
+                assertEquals(70, range.cols());
+                for (int i = range.rowStart; i < range.rowEnd; i++) {
+                    seen[i]++;
+                    // a reported row is final already
+                    int[] row = new int[70];
+                    c.getRow(i, 0, row, 0, 70);
+                    assertArrayEquals(MatrixGenerator.multiply(a.view(i, 0, 1, 50), b).toArray()[0], row);
+                }
+            }
+            for (int i = 0; i < seen.length; i++) {
+                assertEquals(1, seen[i], "row " + i);
+            }
+            assertSame(c, rows.result());
+            assertTrue(c.contentEquals(MatrixGenerator.multiply(a, b)));
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_FileBackedOperandsThroughSharedFiles() throws Exception {
+        master.listen(0);
+        List<Worker> workers = startWorkers(2);
+        Path dir = Files.createTempDirectory("out-of-core");
+        try {
+            MappedMatrix a = MatrixGenerator.randomMatrix(dir.resolve("a"), 90, 40, 20);
+            MappedMatrix b = MatrixGenerator.randomMatrix(dir.resolve("b"), 40, 60, 20);
+            MappedMatrix c = MappedMatrix.create(dir.resolve("c"), 90, 60);
+
+            // the workers share this host, so they map the files instead of receiving the blocks
+            assertSame(c, master.blockMultiply(a, b, c, 2, null));
+            assertTrue(c.contentEquals(MatrixGenerator.multiply(a, b)));
+
+            // a view is not a whole file, so these blocks travel over the socket
+            Matrix strip = a.view(10, 0, 30, 40);
+            assertTrue(master.blockMultiply(strip, b, 2).contentEquals(MatrixGenerator.multiply(strip, b)));
+        } finally {
+            workers.forEach(Worker::stop);
+            for (String name : new String[] { "a", "b", "c" })
+                Files.deleteIfExists(dir.resolve(name));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void testMetrics_CountTasksLatencyAndTraffic() throws Exception {
+        master.listen(0);
+        List<Worker> workers = startWorkers(2);
+        try {
+            long tasksBefore = Metrics.shared().snapshot().counter("rpc.sent.task.frames");
+            Matrix a = MatrixGenerator.randomMatrix(64, 48, 20);
+            Matrix b = MatrixGenerator.randomMatrix(48, 56, 20);
+            assertTrue(master.blockMultiply(a, b, 2).contentEquals(MatrixGenerator.multiply(a, b)));
+
+            Metrics.Snapshot m = master.metrics().snapshot();
+            long dispatched = m.counter("master.tasks.dispatched");
+            assertTrue(dispatched > 0);
+            long timed = m.histogram("master.task.latency_us").count;
+            assertTrue(timed > 0 && timed <= dispatched);
+            assertEquals(2L, (long) m.gauges.get("master.workers"));
+            assertEquals(0L, (long) m.gauges.get("master.queue.depth"));
+            assertEquals(2L, m.counter("master.workers.joined"));
+            assertNotNull(m.histogram("master.worker.worker-1.latency_us"));
+            assertTrue(m.toString().contains("master.task.latency_us count=" + timed));
+
+            long done = 0;
+            for (Worker w : workers) {
+                done += w.metrics().snapshot().counter("worker.tasks.done");
+            }
+            // a cancelled speculative copy is dispatched but never done
+            assertTrue(done > 0 && done <= dispatched);
+            // tasks may share batches on the way out, so count frames that carried at least one
+            Metrics.Snapshot rpc = Metrics.shared().snapshot();
+            assertTrue(rpc.counter("rpc.sent.task.frames") + rpc.counter("rpc.sent.batch.frames") > tasksBefore);
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testVirtualThreads_ServeConnectionsWhereSupported() throws Exception {
+        if (!Threads.virtualAvailable()) {
+            assertThrows(UnsupportedOperationException.class, () -> new Master(true));
+            assertThrows(UnsupportedOperationException.class, () -> new Worker().setVirtualThreads(true));
+        }
+        boolean virtual = Threads.virtualAvailable();
+        master.shutdown();
+        master = new Master(virtual);
+        assertEquals(virtual, master.usesVirtualThreads());
+        master.listen(0);
+
+        List<Worker> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                Worker w = new Worker();
+                w.setVirtualThreads(virtual);
+                w.joinCluster("localhost", master.getPort());
+                w.start();
+                workers.add(w);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (master.workerCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Matrix a = MatrixGenerator.randomMatrix(50, 30, 20);
+            Matrix b = MatrixGenerator.randomMatrix(30, 40, 20);
+            assertTrue(master.blockMultiply(a, b, 2).contentEquals(MatrixGenerator.multiply(a, b)));
+
+            // plenty of plain request connections at once, each with its own handler thread
+            Socket[] clients = new Socket[200];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new Socket("localhost", master.getPort());
+            }
+            try {
+                for (Socket c : clients) {
+                    Message ping = new Message();
+                    ping.messageType = Message.TYPE_HEARTBEAT;
+                    ping.setPayload(new byte[] { 1, 2, 3 });
+                    RPC.send(c, ping);
+                }
+                for (Socket c : clients) {
+                    assertArrayEquals(new byte[] { 1, 2, 3 }, RPC.receive(c).payloadBytes());
+                }
+            } finally {
+                for (Socket c : clients) {
+                    c.close();
+                }
+            }
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_SurvivesWorkerLoss() throws Exception {
+        master.listen(0);
+        List<Worker> workers = startWorkers(2);
+
+        int[][] a = MatrixGenerator.generateRandomMatrix(64, 64, 20);
+        int[][] b = MatrixGenerator.generateRandomMatrix(64, 64, 20);
+
+        workers.get(0).stop();
+        try {
+            assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 2),
+                    "Blocks lost with a dead worker should be re-run elsewhere");
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_ReassignsBlocksOfSilentWorker() throws Exception {
+        master.setHeartbeat(50, 300);
+        master.listen(0);
+        List<Worker> workers = startWorkers(1);
+
+        // joins, then never reads or answers again while its socket stays open
+        Socket silent = new Socket("localhost", master.getPort());
+        Message hello = new Message();
+        hello.messageType = Message.TYPE_HELLO;
+        RPC.call(silent, hello);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (master.workerCount() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        try {
+            int[][] a = MatrixGenerator.generateRandomMatrix(64, 64, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(64, 64, 20);
+            long start = System.currentTimeMillis();
+            assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 2));
+            assertTrue(System.currentTimeMillis() - start < 3000, "Job should finish soon after the timeout");
+
+            // the healthy worker keeps answering pings while idle
+            Thread.sleep(600);
+            assertEquals(1, master.workerCount(), "Only the silent worker should have been dropped");
+        } finally {
+            silent.close();
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_SpeculatesAroundStuckWorker() throws Exception {
+        master.listen(0);
+        List<Worker> workers = startWorkers(1);
+
+        // answers heartbeats, so it never times out, but sits on every task it gets
+        Socket stuck = new Socket("localhost", master.getPort());
+        Message hello = new Message();
+        hello.messageType = Message.TYPE_HELLO;
+        RPC.call(stuck, hello);
+        Thread pong = new Thread(() -> {
+            try {
+                while (true) {
+                    Message m = RPC.receive(stuck);
+                    if (m.messageType == Message.TYPE_HEARTBEAT)
+                        RPC.send(stuck, m);
+                }
+            } catch (Exception ignored) {
+            }
+        });
+        pong.setDaemon(true);
+        pong.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (master.workerCount() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        try {
+            int[][] a = MatrixGenerator.generateRandomMatrix(96, 64, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(64, 96, 20);
+            assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 2));
+            assertTrue(master.speculativeWins() >= 1, "Stuck blocks should have been won by their copies");
+            assertEquals(2, master.workerCount(), "A slow worker is not a dead one");
+        } finally {
+            stuck.close();
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testListen_MultiplexedCallsOnOneConnection() throws Exception {
+        master.listen(0);
+        RpcClient client = RpcClient.connect("localhost", master.getPort(), (c, msg) -> {
+        });
+        try {
+            List<CompletableFuture<Message>> calls = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                Message req = new Message();
+                req.messageType = Message.TYPE_HEARTBEAT;
+                req.sender = "client";
+                req.setPayload(("ping-" + i).getBytes(StandardCharsets.UTF_8));
+                calls.add(client.call(req));
+            }
+            for (int i = 0; i < calls.size(); i++) {
+                Message res = calls.get(i).get();
+                assertEquals("ping-" + i, new String(res.payloadBytes(), StandardCharsets.UTF_8),
+                        "Each reply must complete the call with the same request id");
+            }
+            assertEquals(0, client.outstanding());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void testListenNonBlocking_Distributed() throws Exception {
+        master.listenNonBlocking(0, 2);
+        List<Worker> workers = startWorkers(3);
+        try {
+            int[][] a = MatrixGenerator.generateRandomMatrix(50, 30, 20);
+            int[][] b = MatrixGenerator.generateRandomMatrix(30, 40, 20);
+            assertArrayEquals(MatrixGenerator.multiply(a, b), master.blockMultiply(a, b, 3));
+        } finally {
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testListenNonBlocking_ManyConnectionsAndLargeFrames() throws Exception {
+        master.listenNonBlocking(0, 2);
+
+        List<RpcClient> clients = new ArrayList<>();
+        List<CompletableFuture<Message>> calls = new ArrayList<>();
+        byte[] big = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < big.length; i++)
+            big[i] = (byte) i;
+
+        try {
+            for (int i = 0; i < 40; i++) {
+                RpcClient client = RpcClient.connect("localhost", master.getPort(), (c, msg) -> {
+                });
+                clients.add(client);
+                Message req = new Message();
+                req.messageType = Message.TYPE_HEARTBEAT;
+                req.setPayload((i == 0) ? big : ("c" + i).getBytes(StandardCharsets.UTF_8));
+                calls.add(client.call(req));
+            }
+
+            assertArrayEquals(big, calls.get(0).get().payloadBytes(),
+                    "Large frames must survive partial reads and writes");
+            for (int i = 1; i < calls.size(); i++) {
+                assertEquals("c" + i, new String(calls.get(i).get().payloadBytes(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            clients.forEach(RpcClient::close);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_RetriesBlocksAWorkerFailed() throws Exception {
+        master.listen(0);
+        List<Worker> workers = startWorkers(1);
+        Socket faulty = faultyWorker(2);
+        try {
+            Matrix a = MatrixGenerator.randomMatrix(96, 40, 20);
+            Matrix b = MatrixGenerator.randomMatrix(40, 64, 20);
+            assertTrue(master.blockMultiply(a, b, 2).contentEquals(MatrixGenerator.multiply(a, b)));
+
+            Metrics.Snapshot m = master.metrics().snapshot();
+            assertTrue(m.counter("master.tasks.failed") > 0, "The faulty worker should have been sent blocks");
+            assertTrue(m.counter("master.tasks.requeued") >= m.counter("master.tasks.failed"));
+        } finally {
+            faulty.close();
+            workers.forEach(Worker::stop);
+        }
+    }
+
+    @Test
+    void testBlockMultiply_FailsBlocksNoWorkerCanRun() throws Exception {
+        master.listen(0);
+        Socket first = faultyWorker(1);
+        Socket second = faultyWorker(2);
+        try {
+            Matrix a = MatrixGenerator.randomMatrix(32, 16, 20);
+            Matrix b = MatrixGenerator.randomMatrix(16, 32, 20);
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> master.blockMultiply(a, b, 2));
+            assertTrue(e.getMessage().contains("out of disk"), e.getMessage());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    private List<Worker> startWorkers(int count) throws InterruptedException {
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Worker w = new Worker();
+            w.joinCluster("localhost", master.getPort());
+            Thread t = new Thread(w::execute);
+            t.setDaemon(true);
+            t.start();
+            workers.add(w);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (master.workerCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, master.workerCount(), "All workers should have joined");
+        return workers;
+    }
+
+    // joins like a worker and answers every task with an error; heartbeats are echoed
+    private Socket faultyWorker(int expectedWorkers) throws Exception {
+        Socket socket = new Socket("localhost", master.getPort());
+        Message hello = new Message();
+        hello.messageType = Message.TYPE_HELLO;
+        hello.setPayload(ByteBuffer.allocate(8).putInt(0).putInt(2).array());
+        RPC.call(socket, hello);
+
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    Message frame = RPC.receive(socket);
+                    List<Message> msgs = (frame.messageType == Message.TYPE_BATCH) ? frame.unbatch() : List.of(frame);
+                    for (Message msg : msgs) {
+                        if (msg.messageType == Message.TYPE_TASK) {
+                            long taskId = msg.payloadBuffer().getLong();
+                            byte[] reason = "out of disk".getBytes(StandardCharsets.UTF_8);
+                            Message error = new Message();
+                            error.messageType = Message.TYPE_ERROR;
+                            error.requestId = msg.requestId;
+                            error.sender = "faulty";
+                            error.setPayload(ByteBuffer.allocate(8 + reason.length).putLong(taskId).put(reason).array());
+                            RPC.send(socket, error);
+                        } else if (msg.messageType == Message.TYPE_HEARTBEAT) {
+                            RPC.send(socket, msg);
+                        }
+                    }
+                }
+            } catch (Exception closed) {
+                // the test is over
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (master.workerCount() < expectedWorkers && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(expectedWorkers, master.workerCount(), "The faulty worker should have joined");
+        return socket;
+    }
 }
@@ -0,0 +1,164 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for the MatrixGenerator multiply paths.
+ * Every strategy must agree with the plain triple loop.
+ */
+class MatrixGeneratorTest {
+
+    @Test
+    void testStrategies_AgreeWithIkj() {
+        // sizes straddle the tile edges so partial tiles are exercised
+        int[][] a = MatrixGenerator.generateRandomMatrix(131, MatrixKernels.TILE_K + 7, 50);
+        int[][] b = MatrixGenerator.generateRandomMatrix(MatrixKernels.TILE_K + 7, MatrixKernels.TILE_J + 3, 50);
+        int[][] expected = MatrixGenerator.multiply(a, b);
+
+        for (MultiplyStrategy s : MultiplyStrategy.values()) {
+            assertArrayEquals(expected, MatrixGenerator.multiply(a, b, s), s + " sequential");
+            assertArrayEquals(expected, MatrixGenerator.parallelMultiply(a, b, 3, s), s + " parallel");
+        }
+    }
+
+    @Test
+    void testMultiply_RectangularIdentity() {
+        int[][] a = MatrixGenerator.generateRandomMatrix(5, 9, 100);
+        int[][] id = MatrixGenerator.generateIdentityMatrix(9);
+        for (MultiplyStrategy s : MultiplyStrategy.values()) {
+            assertArrayEquals(a, MatrixGenerator.multiply(a, id, s), s.name());
+        }
+    }
+
+    @Test
+    void testMultiply_DimensionMismatch() {
+        int[][] a = new int[3][4];
+        int[][] b = new int[5][2];
+        assertThrows(IllegalArgumentException.class, () -> MatrixGenerator.multiply(a, b, MultiplyStrategy.TILED));
+    }
+
+    @Test
+    void testParallelMultiply_QuadrantAndInnerSplits() {
+        // wide/tall shapes drive the recursion through quadrant, row, column and inner-dimension splits
+        int[][] shapes = { { 150, 90, 170 }, { 300, 40, 20 }, { 20, 40, 300 }, { 20, 5000, 20 } };
+        for (int[] s : shapes) {
+            Matrix a = MatrixGenerator.randomMatrix(s[0], s[1], 20);
+            Matrix b = MatrixGenerator.randomMatrix(s[1], s[2], 20);
+            assertTrue(MatrixGenerator.multiply(a, b).contentEquals(MatrixGenerator.parallelMultiply(a, b, 4)),
+                    s[0] + "x" + s[1] + "x" + s[2]);
+        }
+    }
+
+    @Test
+    void testTileKernels_AgreeOnPartialGroupsAndLanes() {
+        // row ranges that leave short groups, widths that leave lanes over; the vector kernel only
+        // runs where the runtime has jdk.incubator.vector
+        List<TileKernel> kernels = new ArrayList<>();
+        kernels.add(TileKernels.scalar());
+        if (TileKernels.vector() != null)
+            kernels.add(TileKernels.vector());
+
+        Matrix a = MatrixGenerator.randomMatrix(23, MatrixKernels.TILE_K + 5, 1000);
+        for (int width : new int[] { 1, 7, 37, MatrixKernels.TILE_J + 9 }) {
+            Matrix b = MatrixGenerator.randomMatrix(a.cols(), width, 1000);
+            int[][] expected = MatrixGenerator.multiply(a.toArray(), b.toArray());
+            for (TileKernel k : kernels) {
+                Matrix c = Matrix.heap(a.rows(), width);
+                MatrixKernels.multiplyRows(a, b, c, 0, 2, k);
+                MatrixKernels.multiplyRows(a, b, c, 2, 21, k);
+                MatrixKernels.multiplyRows(a, b, c, 21, 23, k);
+                assertArrayEquals(expected, c.toArray(), k.getClass().getSimpleName() + " width " + width);
+            }
+        }
+    }
+
+    @Test
+    void testAccumulation_LongIsExactAndModReduces() {
+        // full-range ints: the int kernels wrap, the long one must not, and the mod one must
+        // reduce correctly across tile and reduction-chunk edges
+        Random rnd = new Random(11);
+        int n = 19;
+        int m = MatrixKernels.TILE_K + 13;
+        int p = 23;
+        int[][] a = new int[n][m];
+        int[][] b = new int[m][p];
+        for (int[] row : a) {
+            for (int k = 0; k < m; k++)
+                row[k] = rnd.nextInt(1 << 24) - (1 << 23);
+        }
+        for (int[] row : b) {
+            for (int j = 0; j < p; j++)
+                row[j] = rnd.nextInt();
+        }
+
+        long[][] wide = new long[n][p];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < m; k++) {
+                for (int j = 0; j < p; j++)
+                    wide[i][j] += (long) a[i][k] * b[k][j];
+            }
+        }
+        Matrix ma = Matrix.of(a);
+        Matrix mb = Matrix.of(b);
+        assertArrayEquals(wide, MatrixGenerator.multiplyLong(a, b));
+        assertArrayEquals(wide, MatrixGenerator.parallelMultiplyLong(ma, mb, 3).toArray());
+
+        for (int q : new int[] { 2, 97, 65_521, 1_000_000_007, Integer.MAX_VALUE }) {
+            int[][] expected = new int[n][p];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < p; j++) {
+                    long sum = 0;
+                    for (int k = 0; k < m; k++)
+                        sum = (sum + Math.floorMod(a[i][k], q) * (long) Math.floorMod(b[k][j], q)) % q;
+                    expected[i][j] = (int) sum;
+                }
+            }
+            assertArrayEquals(expected, MatrixGenerator.multiplyMod(a, b, q), "mod " + q);
+            assertArrayEquals(expected, MatrixGenerator.parallelMultiplyMod(ma, mb, 3, q).toArray(), "mod " + q);
+        }
+        assertThrows(IllegalArgumentException.class, () -> MatrixGenerator.multiplyMod(a, b, 1));
+    }
+
+    @Test
+    void testStrassen_OddAndRectangularShapesMatchKernel() {
+        // small crossovers force several levels, with odd dimensions peeled at each of them
+        int[][] shapes = { { 64, 64, 64 }, { 9, 7, 11 }, { 33, 65, 17 }, { 100, 101, 99 } };
+        for (int[] s : shapes) {
+            Matrix a = MatrixGenerator.randomMatrix(s[0], s[1], 1000);
+            Matrix b = MatrixGenerator.randomMatrix(s[1], s[2], 1000);
+            Matrix expected = MatrixGenerator.multiply(a, b);
+            String shape = s[0] + "x" + s[1] + "x" + s[2];
+            for (int crossover : new int[] { 2, 8, 16 }) {
+                assertTrue(expected.contentEquals(MatrixGenerator.strassenMultiply(a, b, crossover)), shape + " " + crossover);
+                assertTrue(expected.contentEquals(MatrixGenerator.parallelStrassenMultiply(a, b, 3, crossover)),
+                        shape + " " + crossover + " parallel");
+            }
+        }
+        assertFalse(Strassen.splits(MatrixGenerator.randomMatrix(64, 64, 1), MatrixGenerator.randomMatrix(64, 64, 1), 0),
+                "A crossover of 0 should turn the recursion off");
+    }
+
+    @Test
+    void testParallelMultiply_ConcurrentCallsSharePool() {
+        assertSame(ForkJoinMultiply.pool(3), ForkJoinMultiply.pool(3), "Pools should be reused across calls");
+
+        int[][] a = MatrixGenerator.generateRandomMatrix(120, 80, 20);
+        int[][] b = MatrixGenerator.generateRandomMatrix(80, 100, 20);
+        int[][] expected = MatrixGenerator.multiply(a, b);
+
+        List<CompletableFuture<int[][]>> jobs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            jobs.add(CompletableFuture.supplyAsync(() -> MatrixGenerator.parallelMultiply(a, b, 3, MultiplyStrategy.TILED)));
+        }
+        for (CompletableFuture<int[][]> job : jobs) {
+            assertArrayEquals(expected, job.join());
+        }
+    }
+}
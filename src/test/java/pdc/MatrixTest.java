@@ -0,0 +1,61 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.IntBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for the flat Matrix types.
+ * Covers views, heap/direct agreement and the Matrix multiply kernel.
+ */
+class MatrixTest {
+
+    @Test
+    void testViews_ShareStorage() {
+        for (Matrix m : new Matrix[] { Matrix.heap(6, 5), Matrix.direct(6, 5) }) {
+            Matrix v = m.view(2, 1, 3, 3);
+            v.set(0, 0, 42);
+            assertEquals(42, m.get(2, 1), m + ": view writes should land in the parent");
+            assertFalse(v.isContiguous());
+            assertTrue(m.view(1, 0, 4, 5).isContiguous());
+            assertThrows(IndexOutOfBoundsException.class, () -> m.view(4, 0, 3, 5));
+        }
+    }
+
+    @Test
+    void testOf_RoundTrip() {
+        int[][] src = MatrixGenerator.generateRandomMatrix(7, 4, 1000);
+        assertArrayEquals(src, Matrix.of(src).toArray());
+    }
+
+    @Test
+    void testBulkTransfer_NonContiguousView() {
+        Matrix heap = Matrix.of(MatrixGenerator.generateRandomMatrix(8, 8, 100));
+        Matrix direct = Matrix.direct(8, 8);
+        direct.copyFrom(heap);
+        assertTrue(heap.contentEquals(direct));
+
+        IntBuffer ints = IntBuffer.allocate(12);
+        direct.view(3, 2, 3, 4).writeTo(ints);
+        ints.flip();
+
+        Matrix back = Matrix.heap(3, 4);
+        back.readFrom(ints);
+        assertTrue(heap.view(3, 2, 3, 4).contentEquals(back));
+    }
+
+    @Test
+    void testMultiply_MatchesJagged() {
+        int[][] a = MatrixGenerator.generateRandomMatrix(45, MatrixKernels.TILE_K + 9, 30);
+        int[][] b = MatrixGenerator.generateRandomMatrix(MatrixKernels.TILE_K + 9, 70, 30);
+        int[][] expected = MatrixGenerator.multiply(a, b);
+
+        Matrix da = Matrix.direct(a.length, a[0].length);
+        da.copyFrom(Matrix.of(a));
+
+        assertArrayEquals(expected, MatrixGenerator.multiply(Matrix.of(a), Matrix.of(b)).toArray());
+        assertArrayEquals(expected, MatrixGenerator.parallelMultiply(da, Matrix.of(b), 2).toArray());
+    }
+}
@@ -0,0 +1,286 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for the Message wire format.
+ * Covers pack/unpack round trips, compatibility with older frames and batched writes.
+ */
+class MessageTest {
+
+    @Test
+    void testPackUnpack_RoundTrip() {
+        Message m = new Message();
+        m.messageType = Message.TYPE_TASK;
+        m.studentId = "student";
+        m.sender = "master";
+        m.requestId = 1234567890123L;
+        m.setPayload("block".getBytes(StandardCharsets.UTF_8));
+
+        Message back = Message.unpack(m.pack());
+        assertNotNull(back);
+        assertEquals(Message.TYPE_TASK, back.messageType);
+        assertEquals("student", back.studentId);
+        assertEquals("master", back.sender);
+        assertEquals(m.timestamp, back.timestamp);
+        assertEquals(m.requestId, back.requestId);
+        assertArrayEquals(m.payloadBytes(), back.payloadBytes());
+    }
+
+    @Test
+    void testUnpack_Version1FrameHasNoRequestId() {
+        byte[] sid = "s".getBytes(StandardCharsets.UTF_8);
+        int frameLen = 4 + 2 + 1 + 8 + 2 + sid.length + 2 + 4 + 3;
+        ByteBuffer buf = ByteBuffer.allocate(4 + frameLen);
+        buf.putInt(frameLen).putInt(Message.MAGIC_INT).putShort((short) 1).put(Message.TYPE_HEARTBEAT).putLong(99L);
+        buf.putShort((short) sid.length).put(sid).putShort((short) 0);
+        buf.putInt(3).put(new byte[] { 1, 2, 3 });
+
+        Message back = Message.unpack(buf.array());
+        assertNotNull(back, "Version 1 frames should still decode");
+        assertEquals(1, back.version);
+        assertEquals(0, back.requestId);
+        assertEquals(99L, back.timestamp);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, back.payloadBytes());
+    }
+
+    @Test
+    void testUnpack_RejectsBadMagic() {
+        byte[] frame = new Message().pack();
+        frame[4] ^= 0x7F;
+        assertNull(Message.unpack(frame));
+    }
+
+    @Test
+    void testFrameDecoder_ByteAtATime() throws Exception {
+        Message a = new Message();
+        a.messageType = Message.TYPE_TASK;
+        a.setPayload(new byte[100]);
+        Message b = new Message();
+        b.messageType = Message.TYPE_RESULT;
+        b.setPayload(new byte[300]);
+
+        byte[] fa = a.pack();
+        byte[] fb = b.pack();
+        byte[] stream = new byte[fa.length + fb.length];
+        System.arraycopy(fa, 0, stream, 0, fa.length);
+        System.arraycopy(fb, 0, stream, fa.length, fb.length);
+
+        // a tiny buffer forces the decoder to grow for the second frame
+        FrameDecoder decoder = new FrameDecoder(16);
+        java.util.List<Message> out = new java.util.ArrayList<>();
+        for (byte x : stream) {
+            decoder.readBuffer().put(x);
+            Message m;
+            while ((m = decoder.next()) != null)
+                out.add(m);
+        }
+
+        assertEquals(2, out.size());
+        assertEquals(Message.TYPE_TASK, out.get(0).messageType);
+        assertEquals(100, out.get(0).payloadBytes().length);
+        assertEquals(Message.TYPE_RESULT, out.get(1).messageType);
+        assertEquals(300, out.get(1).payloadBytes().length);
+    }
+
+    @Test
+    void testEncodeFrame_MatchesPack() {
+        Message m = new Message();
+        m.messageType = Message.TYPE_RESULT;
+        m.requestId = 7;
+        byte[] payload = new byte[5000];
+        payload[4999] = 9;
+        m.setPayload(payload);
+
+        ByteBuffer[] parts = m.encodeFrame();
+        ByteBuffer joined = ByteBuffer.allocate(parts[0].remaining() + parts[1].remaining());
+        joined.put(parts[0]).put(parts[1]);
+        assertArrayEquals(m.pack(), joined.array());
+        assertTrue(parts[1].hasArray() && parts[1].array() == m.payloadBytes(), "Payload must not be copied");
+    }
+
+    @Test
+    void testDecode_PayloadIsSliceOfBuffer() throws Exception {
+        Message a = new Message();
+        a.messageType = Message.TYPE_TASK;
+        a.setPayload(new byte[] { 1, 2, 3, 4 });
+        Message b = new Message();
+        b.setPayload(new byte[] { 5, 6 });
+
+        ByteBuffer buf = ByteBuffer.allocate(a.pack().length + b.pack().length);
+        a.encodeTo(buf);
+        b.encodeTo(buf);
+        buf.flip();
+
+        Message da = Message.decode(buf);
+        Message db = Message.decode(buf);
+        assertFalse(buf.hasRemaining());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, da.payloadBytes());
+        assertArrayEquals(new byte[] { 5, 6 }, db.payloadBytes());
+
+        // the slice shares the receive buffer
+        buf.put(buf.capacity() - 1, (byte) 42);
+        assertEquals(42, db.payloadBuffer().get(1));
+    }
+
+    @Test
+    void testSetPayload_ReplacesDecodedSlice() throws Exception {
+        Message a = new Message();
+        a.setPayload(new byte[] { 1, 2, 3, 4 });
+        Message back = Message.decode(ByteBuffer.wrap(a.pack()));
+
+        // a decoded message reused as a reply must send the new payload, not the old slice
+        back.setPayload(new byte[] { 9 });
+        assertEquals(1, back.payloadLength());
+        assertArrayEquals(new byte[] { 9 }, Message.unpack(back.pack()).payloadBytes());
+    }
+
+    @Test
+    void testRpc_SocketChannelRoundTrip() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel peer = server.accept()) {
+                Message m = new Message();
+                m.messageType = Message.TYPE_TASK;
+                m.studentId = "x".repeat(700); // header longer than the first read chunk
+                byte[] payload = new byte[1 << 20];
+                payload[12345] = 77;
+                m.setPayload(payload);
+
+                Thread writer = new Thread(() -> {
+                    try {
+                        RPC.send(client, m);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                writer.start();
+                Message back = RPC.receive(peer);
+                writer.join();
+
+                assertEquals(700, back.studentId.length());
+                assertEquals(1 << 20, back.payloadBytes().length);
+                assertEquals(77, back.payloadBytes()[12345]);
+            }
+        }
+    }
+
+    @Test
+    void testRpc_ReceivePooledHoldsBufferUntilRelease() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel peer = server.accept()) {
+                Message m = new Message();
+                m.messageType = Message.TYPE_RESULT;
+                m.requestId = 9;
+                m.setPayload("pooled".getBytes(StandardCharsets.UTF_8));
+                RPC.send(client, m);
+
+                long before = RPC.pool().stats().bytesOutstanding;
+                Message back = RPC.receivePooled(peer);
+                assertTrue(back.payloadBuffer().isDirect());
+                assertEquals("pooled", new String(back.payloadBytes(), StandardCharsets.UTF_8));
+                assertEquals(9, back.requestId);
+                assertTrue(RPC.pool().stats().bytesOutstanding > before);
+
+                back.release();
+                back.release(); // second release is a no-op
+                assertEquals(0, back.payloadLength());
+            }
+        }
+    }
+
+    @Test
+    void testCoalescingWriter_BatchesSmallFrames() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel peer = server.accept()) {
+                CoalescingWriter out = new CoalescingWriter(client.socket(), 50_000_000L, 4096);
+                for (int i = 1; i <= 3; i++) {
+                    out.write(small(i));
+                }
+                Message big = small(4);
+                big.setPayload(new byte[8192]);
+                out.write(big); // too big to hold: the waiting frames go out first, as one batch
+
+                Message batch = RPC.receivePooled(peer);
+                assertEquals(Message.TYPE_BATCH, batch.messageType);
+                List<Message> frames = batch.unbatch();
+                assertEquals(3, frames.size());
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(i + 1, frames.get(i).requestId);
+                    assertEquals("m" + (i + 1), new String(frames.get(i).payloadBytes(), StandardCharsets.UTF_8));
+                    frames.get(i).release();
+                }
+                assertEquals(4, RPC.receive(peer).requestId);
+
+                // a lone frame goes out unwrapped once the delay is up
+                out.write(small(5));
+                Message late = RPC.receive(peer);
+                assertEquals(Message.TYPE_RESULT, late.messageType);
+                assertEquals(5, late.requestId);
+            }
+        }
+    }
+
+    @Test
+    void testCoalescingWriter_StalledPeerDoesNotDelayOthers() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel stalled = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel stalledPeer = server.accept();
+                    SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel peer = server.accept()) {
+                CoalescingWriter blocked = new CoalescingWriter(stalled.socket(), 1_000_000L, 4096);
+                CoalescingWriter out = new CoalescingWriter(client.socket(), 1_000_000L, 4096);
+
+                // fill the stalled connection until the kernel takes no more, so the deadline flush
+                // of the next frame blocks in its write
+                stalled.configureBlocking(false);
+                ByteBuffer filler = ByteBuffer.allocate(64 * 1024);
+                while (stalled.write(filler.clear()) > 0) {
+                    // until the send and receive buffers are both full
+                }
+                stalled.configureBlocking(true);
+                blocked.write(small(1));
+                Thread.sleep(100);
+
+                out.write(small(3));
+                ExecutorService reader = Executors.newSingleThreadExecutor();
+                try {
+                    Future<Message> late = reader.submit(() -> RPC.receive(peer));
+                    assertEquals(3, late.get(5, TimeUnit.SECONDS).requestId,
+                            "The other connection's deadline flush must not wait on the stalled one");
+                } finally {
+                    reader.shutdownNow();
+                    blocked.close();
+                    out.close();
+                }
+            }
+        }
+    }
+
+    private static Message small(int id) {
+        Message m = new Message();
+        m.messageType = Message.TYPE_RESULT;
+        m.requestId = id;
+        m.setPayload(("m" + id).getBytes(StandardCharsets.UTF_8));
+        return m;
+    }
+}
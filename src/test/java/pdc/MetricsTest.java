@@ -0,0 +1,85 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for the metrics registry and its histograms.
+ * Covers bucket precision, percentiles, error counters and the periodic text dump.
+ */
+class MetricsTest {
+
+    @Test
+    void testHistogram_PercentilesWithinBucketPrecision() {
+        Histogram h = new Histogram();
+        for (int v = 1; v <= 100_000; v++) {
+            h.record(v);
+        }
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(100_000, s.count);
+        assertEquals(100_000, s.max);
+        assertEquals(50_000.5, s.mean(), 1e-9);
+        for (double p : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+            double exact = p * 100_000;
+            double error = Math.abs(s.percentile(p) - exact) / exact;
+            assertTrue(error <= 1.0 / Histogram.SUB_BUCKETS, p + " -> " + s.percentile(p));
+        }
+        assertEquals(100_000, s.percentile(1.0));
+
+        // small values are exact, and every value lands in a bucket that holds it
+        Histogram small = new Histogram();
+        small.record(3);
+        small.record(-5);
+        assertEquals(0, small.snapshot().percentile(0.5));
+        assertEquals(3, small.snapshot().percentile(1.0));
+        for (long v : new long[] { 0, 15, 16, 17, 1000, 1L << 40, Long.MAX_VALUE }) {
+            int i = Histogram.index(v);
+            assertTrue(i < Histogram.BUCKETS && Histogram.upperBound(i) >= v && (i == 0 || Histogram.upperBound(i - 1) < v));
+        }
+    }
+
+    @Test
+    void testRegistry_SnapshotErrorsAndRemoval() {
+        Metrics m = new Metrics();
+        m.counter("jobs.done").add(3);
+        m.counter("jobs.done").inc();
+        long[] depth = { 7 };
+        m.gauge("queue.depth", () -> depth[0]);
+        m.histogram("worker.w1.latency_us").record(120);
+        m.error("accept.failed", new IOException("boom"));
+
+        Metrics.Snapshot s = m.snapshot();
+        assertEquals(4, s.counter("jobs.done"));
+        assertEquals(0, s.counter("never.touched"));
+        assertEquals(7L, (long) s.gauges.get("queue.depth"));
+        assertEquals(1, s.counter("accept.failed"));
+        assertTrue(s.lastErrors.get("accept.failed").contains("boom"));
+        assertTrue(s.toString().contains("jobs.done 4\n"));
+
+        m.removeAll("worker.w1.");
+        assertNull(m.snapshot().histogram("worker.w1.latency_us"));
+    }
+
+    @Test
+    void testDumpEvery_DeliversTextSnapshots() throws Exception {
+        Metrics m = new Metrics();
+        m.counter("ticks").inc();
+        BlockingQueue<String> dumps = new ArrayBlockingQueue<>(16);
+        ScheduledFuture<?> dumping = m.dumpEvery(10, TimeUnit.MILLISECONDS, dumps::offer);
+        try {
+            String text = dumps.poll(5, TimeUnit.SECONDS);
+            assertNotNull(text);
+            assertTrue(text.startsWith("# metrics at "));
+            assertTrue(text.contains("ticks 1\n"));
+        } finally {
+            dumping.cancel(false);
+        }
+    }
+}
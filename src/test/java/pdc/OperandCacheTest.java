@@ -0,0 +1,41 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for the worker's operand cache.
+ * Covers LRU eviction under the byte budget and operands too large to keep.
+ */
+class OperandCacheTest {
+
+    @Test
+    void testPut_EvictsLeastRecentlyUsedOverBudget() {
+        OperandCache cache = new OperandCache(3 * 4 * 100);
+        cache.put(1, Matrix.heap(10, 10));
+        cache.put(2, Matrix.heap(10, 10));
+        cache.put(3, Matrix.heap(10, 10));
+        assertNotNull(cache.get(1)); // 2 is now the oldest
+
+        cache.put(4, Matrix.heap(10, 10));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertNotNull(cache.get(4));
+        assertEquals(1, cache.evictions());
+        assertEquals(3 * 4 * 100, cache.bytes());
+    }
+
+    @Test
+    void testPut_SkipsOperandLargerThanBudget() {
+        OperandCache cache = new OperandCache(400);
+        cache.put(1, Matrix.heap(10, 10));
+        cache.put(2, Matrix.heap(20, 20));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1), "An oversized operand must not flush the rest");
+
+        cache.setBudget(0);
+        assertEquals(0, cache.size());
+    }
+}
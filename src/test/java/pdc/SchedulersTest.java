@@ -0,0 +1,123 @@
+package pdc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit 5 tests for the stock block schedulers.
+ * Covers worker choice, queue depth, block shares and carving blocks into halves.
+ */
+class SchedulersTest {
+
+    private static BlockScheduler.Load load(String id, int outstanding, double throughput) {
+        return new BlockScheduler.Load() {
+            @Override
+            public String id() {
+                return id;
+            }
+
+            @Override
+            public int outstanding() {
+                return outstanding;
+            }
+
+            @Override
+            public int window() {
+                return 8;
+            }
+
+            @Override
+            public double throughput() {
+                return throughput;
+            }
+        };
+    }
+
+    @Test
+    void testRoundRobin_TakesTurns() {
+        BlockScheduler rr = Schedulers.roundRobin();
+        List<BlockScheduler.Load> ws = Arrays.asList(load("a", 0, 0), load("b", 0, 0), load("c", 0, 0));
+        assertEquals(0, rr.pick(ws));
+        assertEquals(1, rr.pick(ws));
+        assertEquals(2, rr.pick(ws));
+        assertEquals(0, rr.pick(ws));
+        assertEquals(-1, rr.pick(List.of()));
+    }
+
+    @Test
+    void testLeastOutstanding_PicksShortestQueue() {
+        BlockScheduler lo = Schedulers.leastOutstanding();
+        List<BlockScheduler.Load> ws = Arrays.asList(load("a", 3, 0), load("b", 1, 0), load("c", 2, 0));
+        assertEquals(1, lo.pick(ws));
+        assertEquals("b", lo.choose(ws, 1).get(0).id());
+    }
+
+    @Test
+    void testThroughputWeighted_FavoursFastWorkers() {
+        BlockScheduler tw = Schedulers.throughputWeighted();
+        BlockScheduler.Load fast = load("fast", 2, 4.0);
+        BlockScheduler.Load slow = load("slow", 0, 1.0);
+        List<BlockScheduler.Load> ws = Arrays.asList(slow, fast);
+
+        // (2 + 1) / 4 beats (0 + 1) / 1
+        assertEquals(1, tw.pick(ws));
+        assertEquals("fast", tw.choose(ws, 1).get(0).id());
+        assertEquals(8, tw.depth(fast, ws));
+        assertEquals(2, tw.depth(slow, ws));
+        assertEquals(1.0, tw.share(fast, ws));
+        assertEquals(0.25, tw.share(slow, ws));
+        // nothing reported yet: whole blocks, full depth
+        assertEquals(1.0, tw.share(load("new", 0, 0), ws));
+    }
+
+    @Test
+    void testCarve_HalvesCompleteTheirParent() throws Exception {
+        Matrix a = MatrixGenerator.randomMatrix(64, 16, 10);
+        Matrix b = MatrixGenerator.randomMatrix(16, 16, 10);
+        Block whole = new Block(0, 64, 0, 16);
+        BlockJob job = new BlockJob(a, b, List.of(whole));
+
+        Block head = job.nextReady(0);
+        Block piece = job.carve(head, 0.25);
+        assertEquals(16, piece.rows());
+        Block rest = job.nextReady(0);
+        assertEquals(48, rest.rows());
+        Block thin = new Block(0, 10, 0, 16);
+        assertSame(thin, job.carve(thin, 0.5), "Blocks under two minimum pieces are not split");
+
+        job.computeLocally(piece);
+        assertFalse(job.isDone());
+        job.computeLocally(rest);
+        assertTrue(job.isDone());
+        assertTrue(job.isCompleted(whole));
+        assertTrue(job.c.contentEquals(MatrixGenerator.multiply(a, b)));
+    }
+
+    @Test
+    void testClaim_OneWriterPerBlockUntilComplete() throws Exception {
+        Matrix a = MatrixGenerator.randomMatrix(32, 16, 10);
+        Matrix b = MatrixGenerator.randomMatrix(16, 16, 10);
+        Block whole = new Block(0, 32, 0, 16);
+        BlockJob job = new BlockJob(a, b, List.of(whole));
+        Matrix product = MatrixGenerator.multiply(a, b);
+
+        // an in-place decode holds the block: a twin's copy is turned away rather than mixed in
+        assertTrue(job.claim(whole));
+        assertFalse(job.claim(whole));
+        assertFalse(job.complete(whole, product));
+
+        // a decode that fails partway hands the block back unfinished
+        job.c.view(whole).set(0, 0, -1);
+        job.release(whole);
+        assertFalse(job.isCompleted(whole));
+
+        assertTrue(job.complete(whole, product));
+        assertFalse(job.claim(whole), "A completed block takes no more writes");
+        assertTrue(job.isDone());
+        assertTrue(job.c.contentEquals(product));
+    }
+}
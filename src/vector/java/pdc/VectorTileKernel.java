@@ -0,0 +1,90 @@
+package pdc;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// TileKernel on IntVector. A full group of ROWS rows is walked two vectors of columns at a time:
+// each tile load is broadcast-multiply-added into all four rows, and the eight accumulators stay
+// in registers for the whole depth of the tile, so C is loaded and stored once per tile and B is
+// read once per four rows of A. Short groups go a row at a time. Int lanes wrap exactly as the
+// scalar loop does, so results are identical
+final class VectorTileKernel implements TileKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void accumulate(int[][] arows, int rows, int[][] tile, int depth, int[][] accs, int width) {
+        int j = 0;
+        if (rows == ROWS)
+            j = fourRows(arows, tile, depth, accs, width);
+        for (int r = 0; r < rows; r++) {
+            oneRow(arows[r], tile, depth, accs[r], j, width);
+        }
+    }
+
+    // columns [0, returned) of all four rows
+    private static int fourRows(int[][] arows, int[][] tile, int depth, int[][] accs, int width) {
+        int lanes = SPECIES.length();
+        int[] a0 = arows[0];
+        int[] a1 = arows[1];
+        int[] a2 = arows[2];
+        int[] a3 = arows[3];
+        int j = 0;
+        for (; j + 2 * lanes <= width; j += 2 * lanes) {
+            IntVector c00 = IntVector.fromArray(SPECIES, accs[0], j);
+            IntVector c01 = IntVector.fromArray(SPECIES, accs[0], j + lanes);
+            IntVector c10 = IntVector.fromArray(SPECIES, accs[1], j);
+            IntVector c11 = IntVector.fromArray(SPECIES, accs[1], j + lanes);
+            IntVector c20 = IntVector.fromArray(SPECIES, accs[2], j);
+            IntVector c21 = IntVector.fromArray(SPECIES, accs[2], j + lanes);
+            IntVector c30 = IntVector.fromArray(SPECIES, accs[3], j);
+            IntVector c31 = IntVector.fromArray(SPECIES, accs[3], j + lanes);
+            for (int t = 0; t < depth; t++) {
+                int[] row = tile[t];
+                IntVector b0 = IntVector.fromArray(SPECIES, row, j);
+                IntVector b1 = IntVector.fromArray(SPECIES, row, j + lanes);
+                IntVector s = IntVector.broadcast(SPECIES, a0[t]);
+                c00 = c00.add(s.mul(b0));
+                c01 = c01.add(s.mul(b1));
+                s = IntVector.broadcast(SPECIES, a1[t]);
+                c10 = c10.add(s.mul(b0));
+                c11 = c11.add(s.mul(b1));
+                s = IntVector.broadcast(SPECIES, a2[t]);
+                c20 = c20.add(s.mul(b0));
+                c21 = c21.add(s.mul(b1));
+                s = IntVector.broadcast(SPECIES, a3[t]);
+                c30 = c30.add(s.mul(b0));
+                c31 = c31.add(s.mul(b1));
+            }
+            c00.intoArray(accs[0], j);
+            c01.intoArray(accs[0], j + lanes);
+            c10.intoArray(accs[1], j);
+            c11.intoArray(accs[1], j + lanes);
+            c20.intoArray(accs[2], j);
+            c21.intoArray(accs[2], j + lanes);
+            c30.intoArray(accs[3], j);
+            c31.intoArray(accs[3], j + lanes);
+        }
+        return j;
+    }
+
+    // columns [from, width) of one row: a vector at a time, then the lanes that do not fill one
+    private static void oneRow(int[] arow, int[][] tile, int depth, int[] acc, int from, int width) {
+        int lanes = SPECIES.length();
+        int j = from;
+        for (; j + lanes <= width; j += lanes) {
+            IntVector c0 = IntVector.fromArray(SPECIES, acc, j);
+            for (int t = 0; t < depth; t++) {
+                c0 = c0.add(IntVector.broadcast(SPECIES, arow[t]).mul(IntVector.fromArray(SPECIES, tile[t], j)));
+            }
+            c0.intoArray(acc, j);
+        }
+        for (; j < width; j++) {
+            int sum = acc[j];
+            for (int t = 0; t < depth; t++) {
+                sum += arow[t] * tile[t][j];
+            }
+            acc[j] = sum;
+        }
+    }
+}